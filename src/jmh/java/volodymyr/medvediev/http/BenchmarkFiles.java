@@ -0,0 +1,67 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Temporary web root for the benchmarks: the pages shipped in {@code server} plus generated text files of the sizes
+ * benchmarks ask for, and a configuration serving it with the access log going to a file in the same directory.
+ */
+final class BenchmarkFiles {
+
+    private static final String TEXT = "<p>The quick brown fox jumps over the lazy dog, again and again.</p>\n";
+
+    private final Path root;
+
+    BenchmarkFiles() throws IOException {
+        root = Files.createTempDirectory("http-bench");
+        try (Stream<Path> pages = Files.walk(Path.of("server"))) {
+            for (Path page : (Iterable<Path>) pages::iterator) {
+                Path target = root.resolve(Path.of("server").relativize(page).toString());
+                if (Files.isDirectory(page)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(page, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates {@code name} with {@code size} bytes of repetitive HTML, which compresses about as well as real pages.
+     */
+    File text(String name, int size) throws IOException {
+        StringBuilder text = new StringBuilder(size + TEXT.length());
+        while (text.length() < size) {
+            text.append(TEXT);
+        }
+        text.setLength(size);
+        Path file = root.resolve(name);
+        Files.writeString(file, text, StandardCharsets.ISO_8859_1);
+        return file.toFile();
+    }
+
+    Properties config() {
+        Properties config = new Properties();
+        config.setProperty(Config.ROOT_PARAM, root.toString());
+        config.setProperty(Config.WEB_ROOT_PARAM, root.toString());
+        config.setProperty(Config.SERVER_VERSION_PARAM, "Http Server v1.0");
+        config.setProperty(AccessLog.FILE_PARAM, root.resolve("logs/access.log").toString());
+        config.setProperty(AccessLog.FILES_PARAM, "1");
+        return config;
+    }
+
+    void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
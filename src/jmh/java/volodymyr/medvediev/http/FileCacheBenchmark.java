@@ -0,0 +1,56 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Getting file contents: from the cache with and without the per-request check against the file, and from disk.
+ */
+@State(Scope.Thread)
+public class FileCacheBenchmark {
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private BenchmarkFiles files;
+    private File file;
+    private FileCache checked;
+    private FileCache watched;
+
+    @Setup
+    public void setUp() throws IOException {
+        files = new BenchmarkFiles();
+        file = files.text("page.html", size);
+        MimeTypes mimeTypes = new MimeTypes(files.config());
+        checked = new FileCache(64L * 1024 * 1024, 1024 * 1024, false, mimeTypes, false);
+        watched = new FileCache(64L * 1024 * 1024, 1024 * 1024, false, mimeTypes, true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        files.delete();
+    }
+
+    @Benchmark
+    public byte[] cachedRead() throws IOException {
+        return checked.read(file).data();
+    }
+
+    @Benchmark
+    public byte[] cachedReadWatched() throws IOException {
+        return watched.read(file).data();
+    }
+
+    @Benchmark
+    public byte[] diskRead() throws IOException {
+        checked.clear();
+        return checked.read(file).data();
+    }
+}
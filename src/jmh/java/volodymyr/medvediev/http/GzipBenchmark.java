@@ -0,0 +1,69 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The gzip paths: a cached compressed copy, compressing a file in memory, and streaming a large file compressed and
+ * chunked through a {@link ResponseQueue}.
+ */
+@State(Scope.Thread)
+public class GzipBenchmark {
+
+    @Param({"16384", "1048576"})
+    public int size;
+
+    private BenchmarkFiles files;
+    private File file;
+    private FileCache.Entry cached;
+    private FileCache.Entry uncached;
+    private ResponseQueue response;
+    private NullSocketChannel channel;
+
+    @Setup
+    public void setUp() throws IOException {
+        files = new BenchmarkFiles();
+        file = files.text("page.html", size);
+        MimeTypes mimeTypes = new MimeTypes(files.config());
+        cached = new FileCache(64L * 1024 * 1024, 2L * 1024 * 1024, false, mimeTypes, false).read(file);
+        cached.gzip();
+        // a cache that keeps nothing compresses on every call
+        uncached = new FileCache(64L * 1024 * 1024, 0, false, mimeTypes, false).read(file);
+        response = new ResponseQueue();
+        channel = new NullSocketChannel();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        response.close();
+        files.delete();
+    }
+
+    @Benchmark
+    public byte[] cachedGzip() throws IOException {
+        return cached.gzip();
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return uncached.gzip();
+    }
+
+    @Benchmark
+    public long streamGzip() throws IOException {
+        response.addGzipFile(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        while (!response.writeTo(channel)) {
+            // the stand-in channel takes everything, every call makes progress
+        }
+        return response.takeWritten();
+    }
+}
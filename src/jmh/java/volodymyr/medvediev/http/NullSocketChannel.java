@@ -0,0 +1,127 @@
+package volodymyr.medvediev.http;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Set;
+
+/**
+ * In-memory stand-in for a client connection: accepts every byte written and discards it, so benchmarks measure the
+ * server side of a write without the kernel.
+ */
+final class NullSocketChannel extends SocketChannel {
+
+    private long written;
+
+    NullSocketChannel() {
+        super(SelectorProvider.provider());
+    }
+
+    long written() {
+        return written;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        int length = src.remaining();
+        src.position(src.limit());
+        written += length;
+        return length;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        return -1;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) {
+        return -1;
+    }
+
+    @Override
+    public SocketChannel bind(SocketAddress local) {
+        return this;
+    }
+
+    @Override
+    public <T> SocketChannel setOption(SocketOption<T> name, T value) {
+        return this;
+    }
+
+    @Override
+    public <T> T getOption(SocketOption<T> name) {
+        return null;
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions() {
+        return Set.of();
+    }
+
+    @Override
+    public SocketChannel shutdownInput() {
+        return this;
+    }
+
+    @Override
+    public SocketChannel shutdownOutput() {
+        return this;
+    }
+
+    @Override
+    public Socket socket() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isConnectionPending() {
+        return false;
+    }
+
+    @Override
+    public boolean connect(SocketAddress remote) {
+        return true;
+    }
+
+    @Override
+    public boolean finishConnect() {
+        return true;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() {
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) {
+    }
+}
@@ -0,0 +1,46 @@
+package volodymyr.medvediev.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing a browser-like request head, most of whose headers the server skips.
+ */
+@State(Scope.Thread)
+public class RequestParserBenchmark {
+
+    private static final String REQUEST = "GET /css/main.css HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:120.0) Gecko/20100101 Firefox/120.0\r\n"
+            + "Accept: text/css,*/*;q=0.1\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Referer: http://localhost:8080/\r\n"
+            + "Sec-Fetch-Dest: style\r\n"
+            + "Sec-Fetch-Mode: no-cors\r\n"
+            + "Sec-Fetch-Site: same-origin\r\n"
+            + "\r\n";
+
+    private ByteBuffer buffer;
+    private HttpRequest request;
+
+    @Setup
+    public void setUp() {
+        buffer = ByteBuffer.wrap(REQUEST.getBytes(StandardCharsets.ISO_8859_1));
+        request = new HttpRequest();
+    }
+
+    @Benchmark
+    public HttpRequest parse() throws IOException {
+        buffer.rewind();
+        RequestParser.parse(buffer, request);
+        return request;
+    }
+}
@@ -0,0 +1,74 @@
+package volodymyr.medvediev.http;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A parsed request through resolution, headers, body and access log, then written to an in-memory channel. With
+ * {@code pathTtl} 0 every request resolves its URI from scratch.
+ */
+@State(Scope.Thread)
+public class RequestProcessorBenchmark {
+
+    @Param({"/", "/css/main.css", "/missing"})
+    public String resource;
+
+    @Param({"", "gzip"})
+    public String acceptEncoding;
+
+    @Param({"2000", "0"})
+    public String pathTtl;
+
+    private BenchmarkFiles files;
+    private AccessLog accessLog;
+    private RequestProcessor processor;
+    private HttpRequest request;
+    private ResponseQueue response;
+    private NullSocketChannel channel;
+
+    @Setup
+    public void setUp() throws IOException {
+        files = new BenchmarkFiles();
+        Properties config = files.config();
+        config.setProperty(ResolvedPaths.TTL_PARAM, pathTtl);
+        config.setProperty(ResolvedPaths.NEGATIVE_TTL_PARAM, pathTtl);
+
+        MimeTypes mimeTypes = new MimeTypes(config);
+        accessLog = AccessLog.fromConfig(config);
+        processor = new RequestProcessor(config, FileCache.fromConfig(config, mimeTypes, false),
+                MappedFiles.fromConfig(config), mimeTypes, ResolvedPaths.fromConfig(config),
+                ErrorPages.fromConfig(config, mimeTypes), accessLog, Metrics.fromConfig(config));
+
+        request = new HttpRequest();
+        request.method(Http.Method.GET);
+        request.resource(resource);
+        request.protocol(Http.Protocol.HTTP_1_1);
+        request.header(RequestHeader.ACCEPT_ENCODING, acceptEncoding);
+        request.header(RequestHeader.USER_AGENT, "Mozilla/5.0 (X11; Linux x86_64; rv:120.0) Gecko/20100101");
+        response = new ResponseQueue();
+        channel = new NullSocketChannel();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        response.close();
+        accessLog.close();
+        files.delete();
+    }
+
+    @Benchmark
+    public boolean process() throws IOException {
+        boolean keepAlive = processor.process(request, response, "127.0.0.1", true);
+        while (!response.writeTo(channel)) {
+            // the stand-in channel takes everything, every call makes progress
+        }
+        return keepAlive;
+    }
+}
@@ -0,0 +1,32 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Writing a response header block into a reused buffer, as the staging buffer of a connection is.
+ */
+@State(Scope.Thread)
+public class ResponseHeadersBenchmark {
+
+    private ResponseHeaders headers;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        headers = new ResponseHeaders("Http Server v1.0");
+        out = new ByteArrayOutputStream(1024);
+    }
+
+    @Benchmark
+    public int writeHeaders() throws IOException {
+        out.reset();
+        headers.write(out, Http.Status.OK, "text/html", HttpDate.now(), 12345, "gzip", true);
+        return out.size();
+    }
+}
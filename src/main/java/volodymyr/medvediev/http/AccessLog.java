@@ -0,0 +1,240 @@
+package volodymyr.medvediev.http;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log written by a single background thread. Request threads format their line into a slot of a bounded ring
+ * and return, the writer drains the ring in batches through one buffered stream and only flushes once it has caught up.
+ * <p>
+ * Each slot carries a sequence number: a producer claims the next position with a CAS on {@code tail}, fills the slot
+ * and publishes it by advancing its sequence, so producers never take a lock and the writer never waits for a
+ * producer that has not published yet. When the ring is full the line is dropped, or with
+ * {@code server.log.overflow=block} the request thread waits for the writer to free a slot.
+ * <p>
+ * Lines are laid out as {@code server.log.format} says, see {@link AccessLogFormat}, and go to
+ * {@code server.log.file}, or to standard output if it is not set. A file is rotated once it grows past
+ * {@code server.log.file.max} bytes, keeping {@code server.log.files} old files as {@code <file>.1}, {@code <file>.2},
+ * and so on.
+ */
+final class AccessLog implements AutoCloseable {
+
+    static final String FILE_PARAM = "server.log.file";
+    private static final String FILE_MAX_PARAM = "server.log.file.max";
+    static final String FILES_PARAM = "server.log.files";
+    private static final String CAPACITY_PARAM = "server.log.buffer";
+    private static final String OVERFLOW_PARAM = "server.log.overflow";
+    private static final String FORMAT_PARAM = "server.log.format";
+
+    private static final long DEFAULT_FILE_MAX = 10L * 1024 * 1024;
+    private static final int DEFAULT_FILES = 5;
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final String BLOCK = "block";
+
+    private static final int SLOT_SIZE = 256;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final File file;
+    private final long fileMax;
+    private final int files;
+    private final boolean block;
+    private final AccessLogFormat format;
+
+    private final int mask;
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private long head;
+    private OutputStream out;
+    private long written;
+
+    AccessLog(File file, long fileMax, int files, int capacity, boolean block, AccessLogFormat format)
+            throws IOException {
+        this.file = file;
+        this.fileMax = fileMax;
+        this.files = files;
+        this.block = block;
+        this.format = format;
+
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        slots = new byte[size][SLOT_SIZE];
+        lengths = new int[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        open();
+
+        writer = new Thread(this::drain, "http-access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    static AccessLog fromConfig(Properties config) throws IOException {
+        String file = Config.getString(config, FILE_PARAM, "");
+        return new AccessLog(file.isEmpty() ? null : new File(file),
+                Config.getLong(config, FILE_MAX_PARAM, DEFAULT_FILE_MAX),
+                Config.getInt(config, FILES_PARAM, DEFAULT_FILES),
+                Config.getInt(config, CAPACITY_PARAM, DEFAULT_CAPACITY),
+                BLOCK.equals(Config.getString(config, OVERFLOW_PARAM, "")),
+                AccessLogFormat.of(Config.getString(config, FORMAT_PARAM, AccessLogFormat.COMBINED.name())));
+    }
+
+    /**
+     * Queues the line for one request. It is formatted straight into its slot, which is only replaced by a larger one
+     * when an unusually long line does not fit.
+     *
+     * @param host      textual address of the client
+     * @param bytesSent length of the body sent, negative if unknown
+     */
+    void log(String host, HttpDate date, HttpRequest request, String status, long bytesSent) {
+        long position = claim();
+        if (position < 0) {
+            return;
+        }
+        int index = (int) position & mask;
+        byte[] slot = slots[index];
+        int maxLength = AccessLogFormat.maxLength(host, request) + 1;
+        if (slot.length < maxLength) {
+            slot = new byte[maxLength];
+            slots[index] = slot;
+        }
+        int length = format.write(slot, host, date, request, status, bytesSent);
+        slot[length++] = '\n';
+        lengths[index] = length;
+        sequences.set(index, position + 1);
+    }
+
+    /**
+     * @return how many lines were lost because the ring was full
+     */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes out everything queued so far and stops the writer.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the claimed position, or {@code -1} if the ring is full and lines are dropped
+     */
+    private long claim() {
+        while (true) {
+            long position = tail.get();
+            long available = sequences.get((int) position & mask) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (available < 0) {
+                // the writer has not consumed this slot from the previous lap yet
+                if (!block || closed) {
+                    dropped.increment();
+                    return -1;
+                }
+                // the writer may be parked between batches, waiting for it to wake up on its own stalls every producer
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) == head + 1) {
+                write(slots[index], lengths[index]);
+                sequences.set(index, head + mask + 1);
+                head++;
+            } else {
+                // caught up, hand the batch to the OS before waiting for more
+                flush();
+                if (closed) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void write(byte[] line, int length) {
+        try {
+            if (file != null && written + length > fileMax && written > 0) {
+                rotate();
+            }
+            out.write(line, 0, length);
+            written += length;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void open() throws IOException {
+        if (file == null) {
+            out = new BufferedOutputStream(System.out, WRITE_BUFFER_SIZE);
+            return;
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        out = new BufferedOutputStream(new FileOutputStream(file, true), WRITE_BUFFER_SIZE);
+        written = file.length();
+    }
+
+    /**
+     * Drops the oldest file, shifts {@code <file>.1 .. <file>.(n-1)} up by one and starts a fresh file.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        rotated(files).delete();
+        for (int i = files - 1; i >= 0; i--) {
+            File older = rotated(i);
+            if (older.exists() && !older.renameTo(rotated(i + 1))) {
+                System.out.println("Could not rotate " + older);
+            }
+        }
+        out = new BufferedOutputStream(new FileOutputStream(file, true), WRITE_BUFFER_SIZE);
+        written = 0;
+    }
+
+    private File rotated(int generation) {
+        return generation == 0 ? file : new File(file.getPath() + "." + generation);
+    }
+}
@@ -0,0 +1,196 @@
+package volodymyr.medvediev.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Layouts of an access log line, selected with {@code server.log.format}. Lines are written byte by byte into a
+ * caller supplied array that {@link #maxLength} has made large enough, so formatting allocates nothing.
+ * <p>
+ * Request values are ISO-8859-1 strings as parsed. Quotes, backslashes and non-printable characters are escaped:
+ * {@code \xhh} in the Common and Combined formats as Apache does, {@code &#92;u00hh} in JSON.
+ */
+enum AccessLogFormat {
+
+    /**
+     * {@code host - - [date] "request line" status bytes}
+     */
+    COMMON {
+        @Override
+        int write(byte[] out, String host, HttpDate date, HttpRequest request, String status, long bytes) {
+            return writeCommon(out, host, date, request, status, bytes);
+        }
+    },
+
+    /**
+     * Common Log Format followed by {@code "referer" "user agent"}.
+     */
+    COMBINED {
+        @Override
+        int write(byte[] out, String host, HttpDate date, HttpRequest request, String status, long bytes) {
+            int pos = writeCommon(out, host, date, request, status, bytes);
+            out[pos++] = ' ';
+            pos = quoted(out, pos, request.header(RequestHeader.REFERER));
+            out[pos++] = ' ';
+            return quoted(out, pos, request.header(RequestHeader.USER_AGENT));
+        }
+    },
+
+    /**
+     * One JSON object per line.
+     */
+    JSON {
+        @Override
+        int write(byte[] out, String host, HttpDate date, HttpRequest request, String status, long bytes) {
+            int pos = ascii(out, 0, "{\"host\":\"");
+            pos = ascii(out, pos, host);
+            pos = ascii(out, pos, "\",\"time\":\"");
+            pos = copy(out, pos, date.isoBytes());
+            pos = ascii(out, pos, "\",\"method\":");
+            pos = json(out, pos, request.method());
+            pos = ascii(out, pos, ",\"uri\":");
+            pos = json(out, pos, request.resource());
+            pos = ascii(out, pos, ",\"protocol\":");
+            pos = json(out, pos, request.protocol());
+            pos = ascii(out, pos, ",\"status\":");
+            pos = statusCode(out, pos, status);
+            pos = ascii(out, pos, ",\"bytes\":");
+            pos = bytes < 0 ? ascii(out, pos, "null") : decimal(out, pos, bytes);
+            pos = ascii(out, pos, ",\"referer\":");
+            pos = json(out, pos, request.header(RequestHeader.REFERER));
+            pos = ascii(out, pos, ",\"user_agent\":");
+            pos = json(out, pos, request.header(RequestHeader.USER_AGENT));
+            out[pos++] = '}';
+            return pos;
+        }
+    };
+
+    /**
+     * Room for the fixed parts of the longest layout, the date and the decimal numbers.
+     */
+    private static final int FIXED_LENGTH = 256;
+    /**
+     * A character takes at most six bytes once escaped, {@code &#92;u00hh}.
+     */
+    private static final int MAX_ESCAPED_LENGTH = 6;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    static AccessLogFormat of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Writes the line without its line separator from the start of {@code out}.
+     *
+     * @param bytes length of the body sent, negative if unknown
+     * @return the length of the line
+     */
+    abstract int write(byte[] out, String host, HttpDate date, HttpRequest request, String status, long bytes);
+
+    /**
+     * @return the longest line any layout can write for these values
+     */
+    static int maxLength(String host, HttpRequest request) {
+        return FIXED_LENGTH + host.length() + MAX_ESCAPED_LENGTH * (request.method().length()
+                + request.resource().length() + request.protocol().length()
+                + request.header(RequestHeader.REFERER).length() + request.header(RequestHeader.USER_AGENT).length());
+    }
+
+    private static int writeCommon(byte[] out, String host, HttpDate date, HttpRequest request, String status,
+                                   long bytes) {
+        int pos = ascii(out, 0, host);
+        pos = ascii(out, pos, " - - [");
+        pos = copy(out, pos, date.commonLogBytes());
+        pos = ascii(out, pos, "] \"");
+        pos = escaped(out, pos, request.method());
+        out[pos++] = ' ';
+        pos = escaped(out, pos, request.resource());
+        out[pos++] = ' ';
+        pos = escaped(out, pos, request.protocol());
+        pos = ascii(out, pos, "\" ");
+        pos = statusCode(out, pos, status);
+        out[pos++] = ' ';
+        if (bytes < 0) {
+            out[pos++] = '-';
+            return pos;
+        }
+        return decimal(out, pos, bytes);
+    }
+
+    /**
+     * Writes the three digit code of an {@link Http.Status} value such as {@code " 404 Not Found"}.
+     */
+    private static int statusCode(byte[] out, int pos, String status) {
+        for (int i = 1; i <= 3; i++) {
+            out[pos++] = (byte) status.charAt(i);
+        }
+        return pos;
+    }
+
+    private static int quoted(byte[] out, int pos, String value) {
+        out[pos++] = '"';
+        pos = value.isEmpty() ? ascii(out, pos, "-") : escaped(out, pos, value);
+        out[pos++] = '"';
+        return pos;
+    }
+
+    private static int escaped(byte[] out, int pos, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out[pos++] = '\\';
+                out[pos++] = (byte) c;
+            } else if (c < 0x20 || c >= 0x7f) {
+                out[pos++] = '\\';
+                out[pos++] = 'x';
+                out[pos++] = HEX[(c >> 4) & 0xf];
+                out[pos++] = HEX[c & 0xf];
+            } else {
+                out[pos++] = (byte) c;
+            }
+        }
+        return pos;
+    }
+
+    private static int json(byte[] out, int pos, String value) {
+        out[pos++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out[pos++] = '\\';
+                out[pos++] = (byte) c;
+            } else if (c < 0x20 || c >= 0x7f) {
+                pos = ascii(out, pos, "\\u00");
+                out[pos++] = HEX[(c >> 4) & 0xf];
+                out[pos++] = HEX[c & 0xf];
+            } else {
+                out[pos++] = (byte) c;
+            }
+        }
+        out[pos++] = '"';
+        return pos;
+    }
+
+    private static int ascii(byte[] out, int pos, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            out[pos++] = (byte) value.charAt(i);
+        }
+        return pos;
+    }
+
+    private static int copy(byte[] out, int pos, byte[] value) {
+        System.arraycopy(value, 0, out, pos, value.length);
+        return pos + value.length;
+    }
+
+    private static int decimal(byte[] out, int pos, long value) {
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out[pos++] = (byte) ('0' + value / divisor % 10);
+        }
+        return pos;
+    }
+}
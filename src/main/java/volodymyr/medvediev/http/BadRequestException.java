@@ -0,0 +1,23 @@
+package volodymyr.medvediev.http;
+
+import java.io.IOException;
+
+/**
+ * A request head the server cannot accept. The client is answered with {@link #status()} and the connection is
+ * closed, since where the next request would start is unknown.
+ */
+final class BadRequestException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String status;
+
+    BadRequestException(String message, String status) {
+        super(message);
+        this.status = status;
+    }
+
+    String status() {
+        return status;
+    }
+}
@@ -0,0 +1,85 @@
+package volodymyr.medvediev.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames everything written to it with the HTTP/1.1 chunked transfer coding. Closing writes the terminating chunk
+ * but leaves the underlying connection open.
+ */
+final class ChunkedOutputStream extends FilterOutputStream {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final byte[] buffer;
+    private int count;
+    private boolean closed;
+
+    ChunkedOutputStream(OutputStream out, int chunkSize) {
+        super(out);
+        buffer = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            writeChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Sends what has been buffered as a chunk but, unlike {@link OutputStream#flush()} on most streams, does not flush
+     * the connection: the transport decides when responses go out.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writeChunk();
+        out.write(LAST_CHUNK);
+    }
+
+    /**
+     * Makes a closed stream usable again for a new body on the same underlying stream, dropping anything unsent.
+     */
+    void reset() {
+        count = 0;
+        closed = false;
+    }
+
+    private void writeChunk() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        out.write(Integer.toHexString(count).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(buffer, 0, count);
+        out.write(CRLF);
+        count = 0;
+    }
+}
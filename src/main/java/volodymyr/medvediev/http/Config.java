@@ -0,0 +1,51 @@
+package volodymyr.medvediev.http;
+
+import java.util.Properties;
+
+/**
+ * Lookups in the server configuration, {@code server.properties} overridden by system properties. Values are trimmed
+ * and a parameter that is not set takes the default given; a malformed number fails with a
+ * {@link NumberFormatException}, so a typo stops the server at startup instead of being ignored.
+ * <p>
+ * Parameters read by more than one component are named here, the others by the component that reads them.
+ */
+final class Config {
+
+    static final String ROOT_PARAM = "server.root";
+    static final String WEB_ROOT_PARAM = "web.root";
+    static final String SERVER_VERSION_PARAM = "server.response.version";
+
+    private Config() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code param} is not set
+     */
+    static String require(Properties config, String param) {
+        String value = config.getProperty(param);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + param);
+        }
+        return value.trim();
+    }
+
+    static String getString(Properties config, String param, String defaultValue) {
+        String value = config.getProperty(param);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    static int getInt(Properties config, String param, int defaultValue) {
+        String value = config.getProperty(param);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    static long getLong(Properties config, String param, long defaultValue) {
+        String value = config.getProperty(param);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    static boolean getBoolean(Properties config, String param, boolean defaultValue) {
+        String value = config.getProperty(param);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
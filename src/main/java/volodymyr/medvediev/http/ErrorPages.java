@@ -0,0 +1,121 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Error responses built once from the pages in {@code server.root}. Every variant a client can ask for (keep-alive,
+ * gzip) is encoded up front, headers and body together, so answering an error is a couple of array
+ * copies with only the {@code Date} value filled in.
+ * <p>
+ * Pages are loaded at startup. A {@link FileWatcher} reloads the ones that change, without it they are only picked up
+ * again on restart.
+ */
+final class ErrorPages {
+
+    private static final String GZIP = "gzip";
+
+    private final File serverRoot;
+    private final ResponseHeaders headers;
+    private final MimeTypes mimeTypes;
+    private final Map<String, String> fileNames = Map.of(
+            Http.Status.BAD_REQUEST, "400.html",
+            Http.Status.NOT_FOUND, "404.html",
+            Http.Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "431.html",
+            Http.Status.NOT_IMPLEMENTED, "501.html",
+            Http.Status.SERVICE_UNAVAILABLE, "503.html",
+            Http.Status.HTTP_VERSION_NOT_SUPPORTED, "505.html");
+    private final Map<String, Page> pages = new ConcurrentHashMap<>();
+
+    static ErrorPages fromConfig(Properties config, MimeTypes mimeTypes) throws IOException {
+        return new ErrorPages(new File(Config.require(config, Config.ROOT_PARAM)),
+                new ResponseHeaders(Config.require(config, Config.SERVER_VERSION_PARAM)), mimeTypes);
+    }
+
+    ErrorPages(File serverRoot, ResponseHeaders headers, MimeTypes mimeTypes) throws IOException {
+        this.serverRoot = serverRoot;
+        this.headers = headers;
+        this.mimeTypes = mimeTypes;
+        for (Map.Entry<String, String> page : fileNames.entrySet()) {
+            pages.put(page.getKey(), load(page.getKey(), new File(serverRoot, page.getValue())));
+        }
+    }
+
+    /**
+     * Queues the complete response for {@code status}.
+     *
+     * @param gzip whether the client accepts gzip, the compressed body is only sent when it is smaller
+     * @return the length of the body sent
+     */
+    int write(ResponseQueue response, String status, HttpDate date, boolean gzip, boolean keepAlive)
+            throws IOException {
+        Page page = pages.get(status);
+        int variant = (gzip ? 2 : 0) + (keepAlive ? 1 : 0);
+        response.stream().write(page.head);
+        response.stream().write(date.bytes());
+        response.addBytes(page.tails[variant]);
+        return page.bodyLengths[variant];
+    }
+
+    /**
+     * Reloads the page stored at {@code changed}, if it is one.
+     */
+    void reload(Path changed) {
+        for (Map.Entry<String, String> page : fileNames.entrySet()) {
+            File file = new File(serverRoot, page.getValue());
+            if (file.toPath().toAbsolutePath().normalize().equals(changed) && file.isFile()) {
+                try {
+                    pages.put(page.getKey(), load(page.getKey(), file));
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private Page load(String status, File file) throws IOException {
+        String mimeType = mimeTypes.of(file);
+        byte[] body = Files.readAllBytes(file.toPath());
+        byte[] compressed = compress(body);
+        boolean useGzip = compressed.length < body.length;
+
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        headers.writeUntilDate(head, status);
+        byte[][] tails = new byte[4][];
+        int[] bodyLengths = new int[tails.length];
+        for (int variant = 0; variant < tails.length; variant++) {
+            boolean gzip = variant >= 2 && useGzip;
+            boolean keepAlive = variant % 2 == 1;
+            byte[] content = gzip ? compressed : body;
+            ByteArrayOutputStream tail = new ByteArrayOutputStream();
+            headers.writeAfterDate(tail, mimeType, content.length, gzip ? GZIP : null, keepAlive);
+            tail.write(content);
+            tails[variant] = tail.toByteArray();
+            bodyLengths[variant] = content.length;
+        }
+        return new Page(head.toByteArray(), tails, bodyLengths);
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(data);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * @param head        status line up to the {@code Date} header name
+     * @param tails       rest of the headers and the body, by {@code (gzip ? 2 : 0) + (keepAlive ? 1 : 0)}
+     * @param bodyLengths length of the body in each of the tails
+     */
+    private record Page(byte[] head, byte[][] tails, int[] bodyLengths) {
+    }
+}
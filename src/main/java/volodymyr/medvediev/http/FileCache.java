@@ -0,0 +1,321 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the contents of recently served files in memory, keyed by their path. Files are expected to be named by their
+ * absolute, normalized path, the form {@link FileWatcher} reports changes in, so a change is found with one lookup.
+ * <p>
+ * The total size of cached contents is bounded and recently used files are evicted last. Hits take no lock: the map
+ * is concurrent and a hit only sets the entry's reference bit. Changes to the map and its size are serialized, and
+ * eviction approximates least recently used with the CLOCK algorithm, passing over an entry whose bit is set once and
+ * clearing the bit as it goes.
+ * <p>
+ * An entry is reloaded as soon as the file's modification time or length no longer match the cached copy. When a
+ * {@link FileWatcher} reports changes instead, entries are trusted until they are invalidated and files are not
+ * checked on every request.
+ * <p>
+ * Cached files also keep their gzip representation once it has been asked for, either compressed on first use or,
+ * when {@code server.gzip.precompressed} is enabled, taken from an up to date {@code .gz} file next to the original.
+ */
+final class FileCache {
+
+    private static final String SIZE_PARAM = "server.cache.size";
+    static final String MAX_FILE_SIZE_PARAM = "server.cache.file.max";
+    private static final String PRECOMPRESSED_PARAM = "server.gzip.precompressed";
+
+    private static final long DEFAULT_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_MAX_FILE_SIZE = 1024L * 1024;
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final long capacity;
+    private final long maxFileSize;
+    private final boolean precompressed;
+    private final MimeTypes mimeTypes;
+    private volatile boolean watched;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long size;
+    private volatile long invalidations;
+    private Iterator<Map.Entry<String, Entry>> hand;
+
+    FileCache(long capacity, long maxFileSize, boolean precompressed, MimeTypes mimeTypes, boolean watched) {
+        this.capacity = capacity;
+        this.maxFileSize = Math.min(Math.min(capacity, maxFileSize), MAX_ARRAY_SIZE);
+        this.precompressed = precompressed;
+        this.mimeTypes = mimeTypes;
+        this.watched = watched;
+    }
+
+    static FileCache fromConfig(Properties config, MimeTypes mimeTypes, boolean watched) {
+        return new FileCache(Config.getLong(config, SIZE_PARAM, DEFAULT_SIZE),
+                Config.getLong(config, MAX_FILE_SIZE_PARAM, DEFAULT_MAX_FILE_SIZE),
+                Config.getBoolean(config, PRECOMPRESSED_PARAM, false), mimeTypes, watched);
+    }
+
+    /**
+     * Returns the contents of {@code file}, from memory when the cached copy is still current. Files larger than
+     * {@code server.cache.file.max} are always read from disk and never cached.
+     */
+    Entry read(File file) throws IOException {
+        Entry entry = cached(file);
+        if (entry != null) {
+            return entry;
+        }
+
+        misses.increment();
+        long generation = invalidations;
+        long lastModified = file.lastModified();
+        byte[] data = readFile(file);
+        entry = new Entry(file, data, mimeTypes.of(file), lastModified, data.length <= maxFileSize);
+        if (entry.cacheable) {
+            put(file.getPath(), entry, generation);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the cached contents of {@code file} if they are current, {@code null} otherwise. Only checks the file
+     * itself when no watcher keeps the cache up to date.
+     */
+    Entry cached(File file) {
+        Entry entry = entries.get(file.getPath());
+        if (entry == null
+                || !watched && (entry.lastModified != file.lastModified() || entry.data.length != file.length())) {
+            return null;
+        }
+        if (!entry.referenced) {
+            // only written when it changes, so hot entries do not keep invalidating each other's cache lines
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    /**
+     * Drops {@code changed} and the file whose {@code .gz} sibling it is. Only when neither was cached and
+     * {@code changed} is not a regular file, so it is or may have been a directory, everything below it is dropped.
+     */
+    void invalidate(Path changed) {
+        String name = changed.toString();
+        boolean directory = !Files.isRegularFile(changed);
+        synchronized (this) {
+            invalidations++;
+            boolean removed = remove(name);
+            if (name.endsWith(GZIP_SUFFIX)) {
+                removed |= remove(name.substring(0, name.length() - GZIP_SUFFIX.length()));
+            }
+            if (removed || !directory) {
+                return;
+            }
+            String prefix = name + File.separator;
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> cached = it.next();
+                if (cached.getKey().startsWith(prefix)) {
+                    remove(cached.getValue());
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        invalidations++;
+        entries.values().forEach(this::remove);
+        entries.clear();
+    }
+
+    /**
+     * Switches between trusting entries until they are invalidated and checking the file on every request, for when
+     * the {@link FileWatcher} stops.
+     */
+    void watched(boolean watched) {
+        this.watched = watched;
+    }
+
+    /**
+     * Whether {@code file} is small enough to be kept in memory.
+     */
+    boolean isCacheable(File file) {
+        return file.length() <= maxFileSize;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Stores a freshly read entry unless the cache was invalidated while it was being read, as it may hold the old
+     * contents then.
+     */
+    private synchronized void put(String key, Entry entry, long generation) {
+        if (generation != invalidations) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            remove(previous);
+        }
+        entry.resident = true;
+        size += entry.size();
+        evict(entry);
+    }
+
+    /**
+     * Advances the clock hand, evicting entries that have not been used since it last passed them, until the cache
+     * fits its capacity. {@code keep}, the entry that has just grown the cache, is never evicted by its own call.
+     * <p>
+     * Two turns of the hand are enough to clear every bit and make room, unless hits keep setting bits behind it; in a
+     * third turn entries are evicted whatever their bit.
+     */
+    private void evict(Entry keep) {
+        long turn = entries.size();
+        for (long steps = 0; size > capacity && steps < 3 * turn + 1; steps++) {
+            if (hand == null || !hand.hasNext()) {
+                hand = entries.entrySet().iterator();
+                if (!hand.hasNext()) {
+                    return;
+                }
+            }
+            Map.Entry<String, Entry> candidate = hand.next();
+            Entry entry = candidate.getValue();
+            if (entry == keep) {
+                continue;
+            }
+            if (entry.referenced && steps < 2 * turn) {
+                entry.referenced = false;
+                continue;
+            }
+            if (entries.remove(candidate.getKey(), entry)) {
+                remove(entry);
+            }
+        }
+    }
+
+    private boolean remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        remove(entry);
+        return true;
+    }
+
+    private void remove(Entry entry) {
+        entry.resident = false;
+        size -= entry.size();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] res;
+        try (FileInputStream fis = new FileInputStream(file)) {
+            int length = (int) file.length();
+            res = new byte[length];
+            if (fis.readNBytes(res, 0, length) < length) {
+                throw new IOException("File shrank while being read: " + file);
+            }
+        }
+        return res;
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(data, 0, data.length);
+        }
+        return compressed.toByteArray();
+    }
+
+    final class Entry {
+        private final File file;
+        private final byte[] data;
+        private final String mimeType;
+        private final long lastModified;
+        private final boolean cacheable;
+        private volatile byte[] gzip;
+        private volatile boolean referenced;
+        private boolean resident;
+
+        private Entry(File file, byte[] data, String mimeType, long lastModified, boolean cacheable) {
+            this.file = file;
+            this.data = data;
+            this.mimeType = mimeType;
+            this.lastModified = lastModified;
+            this.cacheable = cacheable;
+        }
+
+        byte[] data() {
+            return data;
+        }
+
+        String mimeType() {
+            return mimeType;
+        }
+
+        /**
+         * Returns the gzip representation of the file. It is only kept for files small enough to be cached.
+         */
+        byte[] gzip() throws IOException {
+            byte[] compressed = gzip;
+            if (compressed != null) {
+                return compressed;
+            }
+            if (!cacheable) {
+                return compress(data);
+            }
+
+            compressed = readPrecompressed();
+            if (compressed == null) {
+                compressed = compress(data);
+            }
+            synchronized (FileCache.this) {
+                if (gzip == null) {
+                    gzip = compressed;
+                    if (resident) {
+                        size += compressed.length;
+                        evict(this);
+                    }
+                }
+                return gzip;
+            }
+        }
+
+        private byte[] readPrecompressed() throws IOException {
+            if (!precompressed) {
+                return null;
+            }
+            File gzipFile = new File(file.getPath() + GZIP_SUFFIX);
+            if (!gzipFile.isFile() || gzipFile.lastModified() < lastModified || gzipFile.length() > maxFileSize) {
+                return null;
+            }
+            return readFile(gzipFile);
+        }
+
+        private long size() {
+            byte[] compressed = gzip;
+            return data.length + (compressed == null ? 0 : compressed.length);
+        }
+    }
+}
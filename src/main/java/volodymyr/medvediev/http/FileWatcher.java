@@ -0,0 +1,145 @@
+package volodymyr.medvediev.http;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Watches {@code web.root} and {@code server.root}, including their subdirectories, and drops whatever the caches
+ * hold for a file as soon as it is created, modified or deleted. With the watcher running {@link FileCache} trusts its
+ * entries without checking the file on every request. Enabled with {@code server.watch}.
+ * <p>
+ * An event that cannot be handled is logged and skipped. Should the watcher stop for any other reason than shutting
+ * down, the cache goes back to checking files.
+ */
+final class FileWatcher implements Runnable {
+
+    private static final String ENABLED_PARAM = "server.watch";
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private FileCache fileCache;
+    private MappedFiles mappedFiles;
+    private ResolvedPaths resolvedPaths;
+    private ErrorPages errorPages;
+
+    private FileWatcher(List<Path> roots) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path root : roots) {
+            registerTree(root);
+        }
+    }
+
+    /**
+     * @return a watcher over the configured roots, or {@code null} when watching is disabled or not possible, in which
+     * case the caches keep checking files on every request
+     */
+    static FileWatcher fromConfig(Properties config) {
+        if (!Config.getBoolean(config, ENABLED_PARAM, false)) {
+            return null;
+        }
+        List<Path> roots = new ArrayList<>();
+        roots.add(Path.of(Config.require(config, Config.WEB_ROOT_PARAM)));
+        roots.add(Path.of(Config.require(config, Config.ROOT_PARAM)));
+        try {
+            return new FileWatcher(roots);
+        } catch (IOException e) {
+            System.out.println("File watching disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Starts delivering changes to the caches on a daemon thread. Changes made since the watcher was created are not
+     * lost, they are delivered first.
+     */
+    void start(FileCache fileCache, MappedFiles mappedFiles, ResolvedPaths resolvedPaths, ErrorPages errorPages) {
+        this.fileCache = fileCache;
+        this.mappedFiles = mappedFiles;
+        this.resolvedPaths = resolvedPaths;
+        this.errorPages = errorPages;
+        Thread thread = new Thread(this, "http-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                // a deployment touches many files at once, handle everything already queued in one pass
+                do {
+                    handle(key);
+                } while ((key = watchService.poll()) != null);
+                resolvedPaths.clear();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        } catch (RuntimeException | Error e) {
+            System.out.println("File watching stopped: " + e);
+            fileCache.watched(false);
+            throw e;
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            try {
+                handle(directory, event);
+            } catch (RuntimeException e) {
+                System.out.println("Could not handle " + event.kind() + " " + event.context() + ": " + e);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private void handle(Path directory, WatchEvent<?> event) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            // events were lost, nothing cached can be trusted
+            fileCache.clear();
+            mappedFiles.clear();
+            return;
+        }
+        Path changed = directory.resolve((Path) event.context()).toAbsolutePath().normalize();
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+            try {
+                registerTree(changed);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        fileCache.invalidate(changed);
+        mappedFiles.invalidate(changed);
+        errorPages.reload(changed);
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
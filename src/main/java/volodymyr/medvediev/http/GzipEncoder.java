@@ -0,0 +1,125 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses a file into gzip framed with the HTTP/1.1 chunked transfer coding, one input buffer at a time.
+ * <p>
+ * Encoders are pooled: the input and output buffers, the chunk buffer and the native {@link Deflater} are reset
+ * between responses rather than allocated for each one. At most {@value #MAX_POOLED} idle encoders are kept, the
+ * {@link Deflater} of any extra one is released right away instead of waiting for the garbage collector.
+ */
+final class GzipEncoder {
+
+    private static final int INPUT_SIZE = 64 * 1024;
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_POOLED = 256;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final Queue<GzipEncoder> FREE = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private final ByteBuffer input = ByteBuffer.allocate(INPUT_SIZE);
+    private final Sink sink = new Sink(INPUT_SIZE + CHUNK_SIZE);
+    private final ChunkedOutputStream chunked = new ChunkedOutputStream(sink, CHUNK_SIZE);
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final DeflaterOutputStream deflate = new DeflaterOutputStream(chunked, deflater, CHUNK_SIZE);
+    private final CRC32 crc = new CRC32();
+    private boolean finished;
+
+    private GzipEncoder() {
+    }
+
+    /**
+     * @return an encoder ready to start a new gzip stream
+     */
+    static GzipEncoder acquire() throws IOException {
+        GzipEncoder encoder = FREE.poll();
+        if (encoder == null) {
+            encoder = new GzipEncoder();
+        } else {
+            POOLED.decrementAndGet();
+        }
+        encoder.start();
+        return encoder;
+    }
+
+    /**
+     * Hands the encoder back to the pool, finished or not. It must not be used afterwards.
+     */
+    void release() {
+        if (POOLED.incrementAndGet() <= MAX_POOLED) {
+            FREE.add(this);
+        } else {
+            POOLED.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compresses the next piece of {@code file}, or ends the stream once the file has been read.
+     *
+     * @return the chunks produced, valid until the next call; may be empty while the deflater buffers input
+     */
+    ByteBuffer next(FileChannel file) throws IOException {
+        sink.reset();
+        input.clear();
+        if (file.read(input) < 0) {
+            deflate.finish();
+            writeInt((int) crc.getValue());
+            writeInt((int) deflater.getBytesRead());
+            chunked.close();
+            finished = true;
+        } else {
+            crc.update(input.array(), 0, input.position());
+            deflate.write(input.array(), 0, input.position());
+        }
+        return sink.view();
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    private void start() throws IOException {
+        sink.reset();
+        chunked.reset();
+        deflater.reset();
+        crc.reset();
+        finished = false;
+        chunked.write(HEADER);
+    }
+
+    /**
+     * Writes a gzip trailer field, least significant byte first.
+     */
+    private void writeInt(int value) throws IOException {
+        chunked.write(value);
+        chunked.write(value >>> 8);
+        chunked.write(value >>> 16);
+        chunked.write(value >>> 24);
+    }
+
+    /**
+     * Output buffer whose contents are handed to the socket without copying them.
+     */
+    private static final class Sink extends ByteArrayOutputStream {
+
+        private Sink(int size) {
+            super(size);
+        }
+
+        private ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
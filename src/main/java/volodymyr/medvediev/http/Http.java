@@ -5,7 +5,15 @@ public interface Http {
         String OK = " 200 OK";
         String BAD_REQUEST = " 400 Bad Request";
         String NOT_FOUND = " 404 Not Found";
+        String REQUEST_HEADER_FIELDS_TOO_LARGE = " 431 Request Header Fields Too Large";
         String NOT_IMPLEMENTED = " 501 Not Implemented";
+        String SERVICE_UNAVAILABLE = " 503 Service Unavailable";
+        String HTTP_VERSION_NOT_SUPPORTED = " 505 HTTP Version Not Supported";
+    }
+
+    interface Protocol {
+        String HTTP_1_0 = "HTTP/1.0";
+        String HTTP_1_1 = "HTTP/1.1";
     }
 
     interface Method {
@@ -15,14 +23,16 @@ public interface Http {
     interface Header {
         String ACCEPT_ENCODING = "accept-encoding";
         String CONNECTION = "Connection: ";
+        String CONNECTION_REQUEST = "connection";
         String CONTENT_ENCODING = "Content-Encoding: ";
         String CONTENT_LENGTH = "Content-Length: ";
+        String CONTENT_LENGTH_REQUEST = "content-length";
         String CONTENT_TYPE = "Content-Type: ";
         String DATE = "Date: ";
-        String METHOD = "method";
-        String PROTOCOL = "protocol";
-        String RESOURCE = "resource";
+        String REFERER = "referer";
         String SERVER = "Server: ";
+        String TRANSFER_ENCODING = "Transfer-Encoding: ";
+        String TRANSFER_ENCODING_REQUEST = "transfer-encoding";
         String UA = "user-agent";
     }
 }
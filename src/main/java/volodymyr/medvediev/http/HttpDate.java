@@ -0,0 +1,80 @@
+package volodymyr.medvediev.http;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Current date in the format of the {@code Date} header. The value only changes once a second, so it is formatted by
+ * the first caller of each second and shared, already encoded, with every other request of that second. The access
+ * log timestamps are prepared along with it.
+ */
+final class HttpDate {
+
+    private static final DateTimeFormatter HTTP_FORMATTER = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss z", Locale.US)
+            .withZone(ZoneId.of("GMT"));
+    private static final DateTimeFormatter COMMON_LOG_FORMATTER = DateTimeFormatter
+            .ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+            .withZone(ZoneId.of("GMT"));
+    private static final DateTimeFormatter ISO_FORMATTER = DateTimeFormatter.ISO_INSTANT;
+
+    private static final AtomicReference<HttpDate> CURRENT = new AtomicReference<>(format(currentSecond()));
+
+    private final long second;
+    private final byte[] bytes;
+    private final byte[] commonLogBytes;
+    private final byte[] isoBytes;
+
+    private HttpDate(long second) {
+        Instant instant = Instant.ofEpochSecond(second);
+        this.second = second;
+        this.bytes = HTTP_FORMATTER.format(instant).getBytes(StandardCharsets.US_ASCII);
+        this.commonLogBytes = COMMON_LOG_FORMATTER.format(instant).getBytes(StandardCharsets.US_ASCII);
+        this.isoBytes = ISO_FORMATTER.format(instant).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static HttpDate now() {
+        HttpDate date = CURRENT.get();
+        long second = currentSecond();
+        if (date.second == second) {
+            return date;
+        }
+        HttpDate updated = format(second);
+        // whoever loses the race simply uses the value it formatted
+        CURRENT.compareAndSet(date, updated);
+        return updated;
+    }
+
+    /**
+     * @return the date as ASCII bytes, shared by all callers and never to be modified
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the date as in the Common Log Format, {@code 10/Oct/2000:13:55:36 +0000}
+     */
+    byte[] commonLogBytes() {
+        return commonLogBytes;
+    }
+
+    /**
+     * @return the date in ISO 8601, {@code 2000-10-10T13:55:36Z}
+     */
+    byte[] isoBytes() {
+        return isoBytes;
+    }
+
+    private static HttpDate format(long second) {
+        return new HttpDate(second);
+    }
+
+    private static long currentSecond() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
@@ -0,0 +1,68 @@
+package volodymyr.medvediev.http;
+
+import java.util.Arrays;
+
+/**
+ * The parts of a request the server acts on. One instance is reused for every request on a connection, so it must
+ * not be kept after the request has been processed.
+ */
+final class HttpRequest {
+
+    private final String[] headers = new String[RequestHeader.count()];
+    private String method;
+    private String resource;
+    private String protocol;
+
+    void reset() {
+        method = null;
+        resource = null;
+        protocol = null;
+        Arrays.fill(headers, null);
+    }
+
+    String method() {
+        return method;
+    }
+
+    void method(String method) {
+        this.method = method;
+    }
+
+    String resource() {
+        return resource;
+    }
+
+    void resource(String resource) {
+        this.resource = resource;
+    }
+
+    String protocol() {
+        return protocol;
+    }
+
+    void protocol(String protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * @return the value of {@code header}, or an empty string if the client did not send it
+     */
+    String header(RequestHeader header) {
+        String value = headers[header.ordinal()];
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Whether the client announced a body. The server never reads request bodies, so the connection cannot be used
+     * for another request: whatever follows the head would be taken for the next request.
+     */
+    boolean hasBody() {
+        String length = headers[RequestHeader.CONTENT_LENGTH.ordinal()];
+        return headers[RequestHeader.TRANSFER_ENCODING.ordinal()] != null
+                || length != null && !"0".equals(length.trim());
+    }
+
+    void header(RequestHeader header, String value) {
+        headers[header.ordinal()] = value;
+    }
+}
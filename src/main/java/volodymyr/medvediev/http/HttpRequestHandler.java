@@ -1,211 +1,168 @@
 package volodymyr.medvediev.http;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.net.InetAddress;
+import java.io.InputStream;
 import java.net.Socket;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Properties;
-import java.util.StringTokenizer;
-import java.util.zip.GZIPOutputStream;
-
-import static volodymyr.medvediev.http.Http.Header.CONNECTION;
-import static volodymyr.medvediev.http.Http.Header.CONTENT_ENCODING;
-import static volodymyr.medvediev.http.Http.Header.CONTENT_LENGTH;
-import static volodymyr.medvediev.http.Http.Header.CONTENT_TYPE;
-import static volodymyr.medvediev.http.Http.Header.DATE;
-import static volodymyr.medvediev.http.Http.Header.METHOD;
-import static volodymyr.medvediev.http.Http.Header.PROTOCOL;
-import static volodymyr.medvediev.http.Http.Header.RESOURCE;
-import static volodymyr.medvediev.http.Http.Header.SERVER;
-import static volodymyr.medvediev.http.Http.Header.UA;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.function.BooleanSupplier;
 
 public class HttpRequestHandler implements Runnable {
 
-    static final String ROOT_PARAM = "server.root";
-    private static final String WEB_ROOT = "web.root";
-    private static final String SERVER_VERSION_PARAM = "server.response.version";
-
-    private static final String INDEX_HTML = "index.html";
-    private static final String BAD_REQUEST = "400.html";
-    private static final String NOT_FOUND = "404.html";
-    private static final String NOT_IMPLEMENTED = "501.html";
-    private static final String GZIP = "gzip";
-    private static final DateTimeFormatter HTTP_FORMATTER = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss z");
+    private static final int REJECT_DRAIN_MILLIS = 1000;
 
-    private final Socket client;
-    private final Properties config;
-    private final File serverRoot;
-    private final String webRoot;
-    private final PrintStream logger;
+    private final SocketChannel client;
+    private final RequestProcessor processor;
+    private final KeepAlive keepAlive;
+    private final Metrics metrics;
+    private final BooleanSupplier backlog;
 
-    HttpRequestHandler(Socket client, Properties config, PrintStream logger) {
+    /**
+     * @param backlog whether other connections are waiting for a thread, see {@link RequestExecutors#hasBacklog}
+     */
+    HttpRequestHandler(SocketChannel client, RequestProcessor processor, KeepAlive keepAlive, Metrics metrics,
+                       BooleanSupplier backlog) {
         this.client = client;
-        this.config = config;
-        serverRoot = new File(config.getProperty(ROOT_PARAM));
-        webRoot = config.getProperty(WEB_ROOT);
-        this.logger = logger;
+        this.processor = processor;
+        this.keepAlive = keepAlive;
+        this.metrics = metrics;
+        this.backlog = backlog;
     }
 
+    /**
+     * Serves requests from the connection until either side asks to close it, it stays idle for longer than the
+     * keep-alive timeout or it reaches the maximum number of requests.
+     * <p>
+     * The thread is held for the whole lifetime of the connection, idle time included. While other connections are
+     * waiting for a thread, responses ask the client to close so that the thread is handed over.
+     * <p>
+     * A request with a body, which is never read, is the last one served on the connection.
+     * <p>
+     * Requests are answered strictly in the order they arrive. Pipelined requests that are already buffered are
+     * processed before anything is written, so their responses leave in as few writes as possible, until a response
+     * fills the batch, see {@link ResponseQueue#isBatchFull()}. The batch is written before the next request is
+     * parsed.
+     */
     @Override
     public void run() {
-
-        OutputStream dataOut = null;
-
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-             PrintWriter out = new PrintWriter(client.getOutputStream())) {
-
-            Map<String, String> requestHeaders = parseRequestHeaders(in);
-
-            String method = requestHeaders.get(METHOD);
-            String resource = requestHeaders.get(RESOURCE);
-            String protocol = requestHeaders.get(PROTOCOL);
-
-            String status;
-            String resolvedResourcePath;
-            File outputFile;
-
-            if (resource.contains("./") || resource.contains("../")) {
-                status = Http.Status.BAD_REQUEST;
-                outputFile = new File(this.serverRoot, BAD_REQUEST);
-            } else if (Http.Method.GET.equals(method)) {
-                resolvedResourcePath = resolveResource(resource);
-                outputFile = new File(this.webRoot, resolvedResourcePath);
-
-                if (!outputFile.exists()) {
-                    status = Http.Status.NOT_FOUND;
-                    outputFile = new File(this.serverRoot, NOT_FOUND);
-                } else {
-                    if (outputFile.isDirectory()) {
-                        outputFile = new File(outputFile, INDEX_HTML);
-                    }
-                    if (outputFile.exists()) {
-                        status = Http.Status.OK;
-                    } else {
-                        status = Http.Status.NOT_FOUND;
-                        outputFile = new File(this.serverRoot, NOT_FOUND);
+        Socket socket = client.socket();
+        metrics.connectionOpened();
+        try (SocketChannel channel = client;
+             ResponseQueue response = new ResponseQueue()) {
+            socket.setSoTimeout(keepAlive.timeoutMillis());
+            // responses are handed over whole, waiting to coalesce them with later writes only adds latency
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            InputStream in = socket.getInputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(RequestParser.MAX_HEAD_SIZE).flip();
+            HttpRequest request = new HttpRequest();
+            String remoteHost = socket.getInetAddress().getHostAddress();
+            int served = 0;
+            boolean open = true;
+            while (open) {
+                try {
+                    while (!processor.parse(buffer, request)) {
+                        // about to wait for the client, send what is ready first
+                        write(response, channel);
+                        if (!read(in, buffer)) {
+                            return;
+                        }
                     }
+                } catch (BadRequestException e) {
+                    processor.reject(response, e.status());
+                    write(response, channel);
+                    channel.shutdownOutput();
+                    drain(socket);
+                    return;
+                }
+                open = processor.process(request, response, remoteHost,
+                        keepAlive.allows(served++) && !backlog.getAsBoolean());
+                if (open && response.isBatchFull()) {
+                    write(response, channel);
                 }
-            } else {
-                outputFile = new File(this.serverRoot, NOT_IMPLEMENTED);
-                status = Http.Status.NOT_IMPLEMENTED;
             }
-
-            ZonedDateTime now = ZonedDateTime.now(ZoneId.of("GMT"));
-            String date = now.format(HTTP_FORMATTER);
-
-            String mimeType = Files.probeContentType(outputFile.toPath());
-            byte[] data = readFile(outputFile);
-
-            writeResponseHeaders(out, protocol, status, mimeType, date, data.length, getContentEncoding(requestHeaders));
-
-            dataOut = getDataOutputStream(requestHeaders, client.getOutputStream());
-            dataOut.write(data, 0, data.length);
-            if (dataOut instanceof GZIPOutputStream) {
-                ((GZIPOutputStream) dataOut).finish();
-            } else {
-                dataOut.flush();
+            write(response, channel);
+            if (request.hasBody() || buffer.hasRemaining()) {
+                // the client sent more than was served, closing with it unread could reset the connection
+                channel.shutdownOutput();
+                drain(socket);
             }
-
-            log(client.getInetAddress(), date, method, status, requestHeaders.getOrDefault(UA, ""), resource);
+        } catch (SocketTimeoutException e) {
+            // idle keep-alive connection, nothing to answer
         } catch (IOException e) {
             System.out.println(e.getMessage());
         } finally {
-            if (dataOut != null) {
-                try {
-                    dataOut.close();
-                } catch (IOException ex) {
-                    System.out.println(ex.getMessage());
-                }
-            }
+            metrics.connectionClosed();
         }
     }
 
-    private void writeResponseHeaders(PrintWriter out, String protocol, String status, String mimeType, String date,
-                                      int length, String contentEncoding) {
-        out.println(protocol + status);
-        out.println(SERVER + config.getProperty(SERVER_VERSION_PARAM));
-        out.println(DATE + date);
-        if (contentEncoding != null)
-            out.println(CONTENT_ENCODING + contentEncoding);
-        out.println(CONTENT_TYPE + mimeType + ";charset=\"utf-8\"");
-        out.println(CONTENT_LENGTH + length);
-        out.println(CONNECTION + "close");
-        out.println();
-        out.flush();
-    }
-
-    private Map<String, String> parseRequestHeaders(BufferedReader in) throws IOException {
-        Map<String, String> headers = new HashMap<>();
-        String header = in.readLine();
-        StringTokenizer tokenizer = new StringTokenizer(header);
-        headers.put(METHOD, tokenizer.nextToken().toUpperCase());
-        headers.put(RESOURCE, tokenizer.nextToken().toLowerCase());
-        headers.put(PROTOCOL, tokenizer.nextToken());
-        String line;
-        while ((line = in.readLine()) != null && !line.isEmpty()) {
-            int idx = line.indexOf(':');
-            if (idx > 0) {
-                headers.put(line.substring(0, idx).toLowerCase(), line.substring(idx + 1).trim());
-            }
+    /**
+     * Answers the client with 503 Service Unavailable without parsing the request and closes the connection.
+     * <p>
+     * Closing a socket with unread data makes the kernel reset the connection, which can discard the 503 before the
+     * client reads it, so the connection is closed with {@link #drain}.
+     */
+    void reject() {
+        Socket socket = client.socket();
+        try (SocketChannel channel = client;
+             ResponseQueue response = new ResponseQueue()) {
+            processor.reject(response, Http.Status.SERVICE_UNAVAILABLE);
+            write(response, channel);
+            channel.shutdownOutput();
+            drain(socket);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
         }
-        return headers;
     }
 
-    private byte[] readFile(File file) throws IOException {
-        byte[] res;
-        try (FileInputStream fis = new FileInputStream(file)) {
-            int length = (int) file.length();
-            res = new byte[length];
-            fis.read(res, 0, length);
+    /**
+     * Reads and throws away whatever the client still sends until it closes its side or {@value #REJECT_DRAIN_MILLIS}
+     * ms pass. The output must already be shut down.
+     */
+    private static void drain(Socket socket) throws IOException {
+        socket.setSoTimeout(REJECT_DRAIN_MILLIS);
+        InputStream in = socket.getInputStream();
+        byte[] discard = new byte[RequestParser.MAX_HEAD_SIZE];
+        long deadline = System.nanoTime() + REJECT_DRAIN_MILLIS * 1_000_000L;
+        try {
+            while (in.read(discard) >= 0 && System.nanoTime() - deadline < 0) {
+                // the request is not served, only read so closing does not reset the connection
+            }
+        } catch (SocketTimeoutException e) {
+            // the client keeps the connection open, close it anyway
         }
-        return res;
-    }
-
-    private void log(InetAddress remoteAddress, String date, String request, String status, String ua,
-                     String resource) {
-        logger.printf("%s [%s] \"%s\"%s %s %s\n", remoteAddress.getHostAddress(), date, request, status, ua, resource);
     }
 
-    private String resolveResource(String requestedPath) {
-        Path resolvedPath = FileSystems.getDefault().getPath("");
-        Path other = FileSystems.getDefault().getPath(requestedPath);
-        for (Path path : other) {
-            if (!path.startsWith(".") && !path.startsWith("..")) {
-                resolvedPath = resolvedPath.resolve(path);
-            }
+    /**
+     * Appends what the client sent next to the unparsed bytes in {@code buffer}.
+     *
+     * @return {@code false} once the client has closed the connection
+     * @throws BadRequestException if the buffer is full without holding a complete request head
+     */
+    private static boolean read(InputStream in, ByteBuffer buffer) throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            throw new BadRequestException("Request head exceeds " + RequestParser.MAX_HEAD_SIZE + " bytes",
+                    Http.Status.REQUEST_HEADER_FIELDS_TOO_LARGE);
         }
-        if (resolvedPath.startsWith("")) {
-            resolvedPath = resolvedPath.resolve(INDEX_HTML);
+        int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (read > 0) {
+            buffer.position(buffer.position() + read);
         }
-        return resolvedPath.toString();
+        buffer.flip();
+        return read >= 0;
     }
 
-    private OutputStream getDataOutputStream(Map<String, String> requestHeaders, OutputStream outputStream)
-            throws IOException {
-        String acceptedEncoding = requestHeaders.getOrDefault(Http.Header.ACCEPT_ENCODING, "");
-        if (acceptedEncoding.contains("gzip")) {
-            return new GZIPOutputStream(outputStream);
+    private void write(ResponseQueue response, SocketChannel channel) throws IOException {
+        if (response.isEmpty()) {
+            return;
         }
-        return new BufferedOutputStream(outputStream);
-    }
-
-    private String getContentEncoding(Map<String, String> requestHeaders) {
-        String acceptedEncoding = requestHeaders.getOrDefault(Http.Header.ACCEPT_ENCODING, "");
-        return acceptedEncoding.contains(GZIP) ? GZIP : null;
+        long start = System.nanoTime();
+        while (!response.writeTo(channel)) {
+            // the channel is blocking, every call makes progress
+        }
+        metrics.phase(Metrics.Phase.WRITE, System.nanoTime() - start);
+        metrics.bytesSent(response.takeWritten());
     }
 }
@@ -3,14 +3,24 @@ package volodymyr.medvediev.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 
 public class HttpServer {
 
     private static final String CONFIG_FILE = "server.properties";
     private static final String PORT_PARAM = "server.port";
     private static final String NAME_PARAM = "server.name";
+    private static final String ENGINE_PARAM = "server.engine";
+
+    private static final String BLOCKING_ENGINE = "blocking";
+    private static final String NIO_ENGINE = "nio";
+    private static final int BACKLOG = 50;
+    private static final long ACCEPT_BACKOFF_MILLIS = 100L;
 
     public static void main(String[] args) {
         Properties config;
@@ -18,24 +28,116 @@ public class HttpServer {
         InetAddress serverAddress;
         try (InputStream inputStream = ClassLoader.getSystemClassLoader().getResourceAsStream(CONFIG_FILE)) {
             config = getServerConfiguration(System.getProperties(), inputStream);
-            String hostname = config.getProperty(NAME_PARAM);
+            String hostname = Config.getString(config, NAME_PARAM, null);
             serverAddress = InetAddress.getByName(hostname);
         } catch (IOException e) {
             System.out.println("Error occurred while reading configuration: " + e.getMessage());
             return;
         }
 
-        int serverPort = Integer.parseInt(config.getProperty(PORT_PARAM));
-        try (ServerSocket serverSocket = new ServerSocket(serverPort, 50, serverAddress)) {
+        int serverPort = Integer.parseInt(Config.require(config, PORT_PARAM));
+        MimeTypes mimeTypes = new MimeTypes(config);
+        ErrorPages errorPages;
+        try {
+            errorPages = ErrorPages.fromConfig(config, mimeTypes);
+        } catch (IOException e) {
+            System.out.println("Error occurred while loading error pages: " + e.getMessage());
+            return;
+        }
+        AccessLog accessLog;
+        try {
+            accessLog = AccessLog.fromConfig(config);
+        } catch (IOException e) {
+            System.out.println("Error occurred while opening access log: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(accessLog::close));
+        Metrics metrics = Metrics.fromConfig(config);
+        FileWatcher watcher = FileWatcher.fromConfig(config);
+        FileCache fileCache = FileCache.fromConfig(config, mimeTypes, watcher != null);
+        MappedFiles mappedFiles = MappedFiles.fromConfig(config);
+        ResolvedPaths resolvedPaths = ResolvedPaths.fromConfig(config);
+        if (watcher != null) {
+            watcher.start(fileCache, mappedFiles, resolvedPaths, errorPages);
+        }
+        RequestProcessor processor = new RequestProcessor(config, fileCache, mappedFiles, mimeTypes, resolvedPaths,
+                errorPages, accessLog, metrics);
+        metrics.register("http_file_cache_hits_total", "counter", "Files served from the file cache.",
+                fileCache::hits);
+        metrics.register("http_file_cache_misses_total", "counter", "Files read from disk by the file cache.",
+                fileCache::misses);
+        metrics.register("http_file_cache_bytes", "gauge", "Size of the contents held by the file cache.",
+                fileCache::size);
+        metrics.register("http_access_log_dropped_total", "counter", "Access log lines dropped on overflow.",
+                accessLog::dropped);
+        KeepAlive keepAlive = KeepAlive.fromConfig(config);
+        String engine = Config.getString(config, ENGINE_PARAM, BLOCKING_ENGINE);
+        switch (engine) {
+            case BLOCKING_ENGINE:
+                serveBlocking(config, processor, keepAlive, metrics, serverAddress, serverPort);
+                break;
+            case NIO_ENGINE:
+                serveNio(config, processor, keepAlive, metrics, serverAddress, serverPort);
+                break;
+            default:
+                System.out.println("Unknown " + ENGINE_PARAM + ": " + engine);
+        }
+    }
+
+    private static void serveBlocking(Properties config, RequestProcessor processor, KeepAlive keepAlive,
+                                      Metrics metrics, InetAddress serverAddress, int serverPort) {
+        ExecutorService executor = RequestExecutors.create(config);
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(serverAddress, serverPort), BACKLOG);
             System.out.printf("HttpServer started on http://%s:%d\n", serverAddress.getHostName(), serverPort);
             while (true) {
-                HttpRequestHandler requestHandler = new HttpRequestHandler(serverSocket.accept(), config, System.out);
-
-                Thread thread = new Thread(requestHandler);
-                thread.start();
+                SocketChannel client = accept(serverChannel);
+                if (client != null) {
+                    executor.execute(new HttpRequestHandler(client, processor, keepAlive, metrics,
+                            () -> RequestExecutors.hasBacklog(executor)));
+                }
             }
         } catch (IOException e) {
             System.out.println(e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void serveNio(Properties config, RequestProcessor processor, KeepAlive keepAlive,
+                                 Metrics metrics, InetAddress serverAddress, int serverPort) {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(serverAddress, serverPort), BACKLOG);
+            NioHttpServer server = new NioHttpServer(config, processor, keepAlive, metrics);
+            System.out.printf("HttpServer (nio) started on http://%s:%d\n", serverAddress.getHostName(), serverPort);
+            server.serve(serverChannel);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Accepts the next connection. Any other error than the channel being closed, such as running out of file
+     * descriptors, only pauses accepting for {@value #ACCEPT_BACKOFF_MILLIS} ms: the open connections keep being served
+     * and closing them frees what is needed to accept again.
+     *
+     * @return the accepted connection, or {@code null} if accepting failed
+     * @throws ClosedChannelException once the server channel is closed
+     */
+    static SocketChannel accept(ServerSocketChannel serverChannel) throws ClosedChannelException {
+        try {
+            return serverChannel.accept();
+        } catch (ClosedChannelException e) {
+            throw e;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            try {
+                Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+            } catch (InterruptedException interrupted) {
+                // the next accept fails with ClosedByInterruptException
+                Thread.currentThread().interrupt();
+            }
+            return null;
         }
     }
 
@@ -0,0 +1,28 @@
+package volodymyr.medvediev.http;
+
+import java.util.Properties;
+
+/**
+ * Persistent connection limits shared by both engines: how long an idle connection is kept open and how many
+ * requests it may carry before the server closes it.
+ */
+record KeepAlive(int timeoutMillis, int maxRequests) {
+
+    private static final String TIMEOUT_PARAM = "server.keepalive.timeout";
+    private static final String MAX_REQUESTS_PARAM = "server.keepalive.requests";
+
+    private static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_MAX_REQUESTS = 100;
+
+    static KeepAlive fromConfig(Properties config) {
+        return new KeepAlive(Config.getInt(config, TIMEOUT_PARAM, DEFAULT_TIMEOUT_MILLIS),
+                Config.getInt(config, MAX_REQUESTS_PARAM, DEFAULT_MAX_REQUESTS));
+    }
+
+    /**
+     * Whether a connection that has already served {@code served} requests may stay open after the next one.
+     */
+    boolean allows(int served) {
+        return served + 1 < maxRequests;
+    }
+}
@@ -0,0 +1,95 @@
+package volodymyr.medvediev.http;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, laid out like HdrHistogram: every power of two range is split into
+ * {@value #SUB_BUCKETS} equal buckets, so a recorded value is known to within about 6% whatever its magnitude.
+ * Recording is an index computation and one atomic increment.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Durations of 2^41 ns, about 37 minutes, and longer are all counted in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+    }
+
+    long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return a copy of the bucket counts, see {@link #lowerBound}
+     */
+    long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the number of buckets counting durations shorter than {@code 2^exponent} nanoseconds
+     */
+    static int bucketsBelow(int exponent) {
+        return exponent <= SUB_BUCKET_BITS ? 1 << exponent
+                : Math.min(BUCKETS, (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    }
+
+    /**
+     * @return the smallest duration counted in bucket {@code index}
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return an upper bound of the {@code quantile} (0 to 1) of the durations counted in {@code counts}, 0 if there
+     * are none
+     */
+    static long valueAt(long[] counts, double quantile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+            }
+        }
+        return 0;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+}
@@ -0,0 +1,111 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Memory maps large files once and hands every request its own view of the mapping. Only the
+ * {@code server.mmap.files} most recently requested files stay mapped, and a mapping is replaced as soon as the file's
+ * modification time or length change.
+ * <p>
+ * Java cannot unmap a buffer explicitly: a dropped mapping goes away once the last response still sending from it
+ * is done and the buffer is garbage collected. Files should be replaced by renaming rather than rewritten in place,
+ * as a mapped file that shrinks under a reader makes that read fail.
+ * <p>
+ * Large files are still checked on every request, a {@link FileWatcher} only makes replaced mappings go away sooner.
+ */
+final class MappedFiles {
+
+    private static final String ENABLED_PARAM = "server.mmap";
+    private static final String MIN_SIZE_PARAM = "server.mmap.min.size";
+    private static final String MAX_FILES_PARAM = "server.mmap.files";
+
+    private static final long DEFAULT_MIN_SIZE = 1024L * 1024;
+    private static final int DEFAULT_MAX_FILES = 16;
+
+    private final boolean enabled;
+    private final long minSize;
+    private final Map<String, Mapping> mappings;
+
+    MappedFiles(boolean enabled, long minSize, int maxFiles) {
+        this.enabled = enabled;
+        this.minSize = minSize;
+        mappings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Mapping> eldest) {
+                return size() > maxFiles;
+            }
+        };
+    }
+
+    static MappedFiles fromConfig(Properties config) {
+        return new MappedFiles(Config.getBoolean(config, ENABLED_PARAM, false),
+                Config.getLong(config, MIN_SIZE_PARAM, DEFAULT_MIN_SIZE),
+                Config.getInt(config, MAX_FILES_PARAM, DEFAULT_MAX_FILES));
+    }
+
+    /**
+     * Returns a read-only view of the whole file, or {@code null} when mapping is disabled or the file is smaller
+     * than {@code server.mmap.min.size} or too large for a single buffer.
+     */
+    ByteBuffer map(File file) throws IOException {
+        long length = file.length();
+        if (!enabled || length < minSize || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        String key = file.getPath();
+        long lastModified = file.lastModified();
+
+        Mapping mapping;
+        synchronized (this) {
+            mapping = mappings.get(key);
+        }
+        if (mapping == null || mapping.lastModified != lastModified || mapping.buffer.capacity() != length) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                mapping = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, length), lastModified);
+            }
+            synchronized (this) {
+                mappings.put(key, mapping);
+            }
+        }
+        return mapping.buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Drops the mapping of {@code changed}, or the mappings of everything below it if it is not a regular file. Files
+     * are looked up by path, see {@link FileCache}.
+     */
+    void invalidate(Path changed) {
+        String name = changed.toString();
+        boolean directory = !Files.isRegularFile(changed);
+        synchronized (this) {
+            if (mappings.remove(name) == null && directory) {
+                String prefix = name + File.separator;
+                mappings.keySet().removeIf(key -> key.startsWith(prefix));
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mappings.clear();
+    }
+
+    private static final class Mapping {
+        private final MappedByteBuffer buffer;
+        private final long lastModified;
+
+        private Mapping(MappedByteBuffer buffer, long lastModified) {
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package volodymyr.medvediev.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server metrics, exposed in the Prometheus text format on {@code server.metrics.path} (empty to disable). Counters are
+ * {@link LongAdder}s and latencies go to {@link LatencyHistogram}s, so recording never blocks a request; the text is
+ * only rendered when the endpoint is scraped.
+ * <p>
+ * Other components publish their own values with {@link #register}.
+ * <p>
+ * Each request is also broken down into {@link Phase}s timed with {@link System#nanoTime}. Besides the endpoint, their
+ * percentiles over the last interval are printed every {@code server.metrics.log.interval} seconds (0 to disable).
+ */
+final class Metrics {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    private static final String PATH_PARAM = "server.metrics.path";
+    private static final String DEFAULT_PATH = "/metrics";
+    private static final String LOG_INTERVAL_PARAM = "server.metrics.log.interval";
+
+    private static final String[] STATUSES = {
+            Http.Status.OK,
+            Http.Status.BAD_REQUEST,
+            Http.Status.NOT_FOUND,
+            Http.Status.REQUEST_HEADER_FIELDS_TOO_LARGE,
+            Http.Status.NOT_IMPLEMENTED,
+            Http.Status.SERVICE_UNAVAILABLE,
+            Http.Status.HTTP_VERSION_NOT_SUPPORTED
+    };
+    /**
+     * Upper bounds of the exported duration buckets, as powers of two nanoseconds: about 16 microseconds to 34 seconds.
+     */
+    private static final int MIN_BUCKET_EXPONENT = 14;
+    private static final int MAX_BUCKET_EXPONENT = 35;
+
+    private final String path;
+    private final Map<String, LongAdder> requests = new HashMap<>();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder gzipInput = new LongAdder();
+    private final LongAdder gzipOutput = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LatencyHistogram requestDuration = new LatencyHistogram();
+    private final LatencyHistogram[] phases = new LatencyHistogram[Phase.VALUES.length];
+    private final List<Registered> registered = new ArrayList<>();
+
+    Metrics(String path) {
+        this.path = path;
+        for (String status : STATUSES) {
+            requests.put(status, new LongAdder());
+        }
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    static Metrics fromConfig(Properties config) {
+        String path = Config.getString(config, PATH_PARAM, DEFAULT_PATH).toLowerCase(Locale.ROOT);
+        Metrics metrics = new Metrics(path.isEmpty() ? null : path);
+        long interval = Config.getLong(config, LOG_INTERVAL_PARAM, 0);
+        if (interval > 0) {
+            metrics.startPhaseLog(interval);
+        }
+        return metrics;
+    }
+
+    /**
+     * Publishes a value owned by another component, read when the endpoint is scraped.
+     *
+     * @param type {@code counter} or {@code gauge}
+     */
+    synchronized void register(String name, String type, String help, LongSupplier value) {
+        registered.add(new Registered(name, type, help, value));
+    }
+
+    boolean isEndpoint(String resource) {
+        return resource.equals(path);
+    }
+
+    /**
+     * Records a response queued {@code nanos} after its request was parsed.
+     */
+    void request(String status, long nanos) {
+        response(status);
+        requestDuration.record(nanos);
+    }
+
+    /**
+     * Counts a response sent without a request being processed, such as a rejection.
+     */
+    void response(String status) {
+        LongAdder counter = requests.get(status);
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    void phase(Phase phase, long nanos) {
+        phases[phase.ordinal()].record(nanos);
+    }
+
+    void bytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    /**
+     * Records a cached file sent gzip compressed, {@code input} bytes before and {@code output} bytes after
+     * compression.
+     */
+    void gzip(long input, long output) {
+        gzipInput.add(input);
+        gzipOutput.add(output);
+    }
+
+    void connectionOpened() {
+        activeConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    String render() {
+        StringBuilder out = new StringBuilder(4096);
+
+        header(out, "http_requests_total", "counter", "Requests answered, by status code.");
+        for (String status : STATUSES) {
+            out.append("http_requests_total{code=\"").append(status, 1, 4).append("\"} ")
+                    .append(requests.get(status).sum()).append('\n');
+        }
+        metric(out, "http_response_bytes_total", "counter", "Bytes written to client connections.",
+                bytesSent.sum());
+        long input = gzipInput.sum();
+        long output = gzipOutput.sum();
+        metric(out, "http_gzip_input_bytes_total", "counter",
+                "Size before compression of cached files sent gzip compressed.", input);
+        metric(out, "http_gzip_output_bytes_total", "counter",
+                "Size after compression of cached files sent gzip compressed.", output);
+        header(out, "http_gzip_ratio", "gauge", "Compressed to uncompressed size of cached files sent gzip compressed.");
+        out.append("http_gzip_ratio ").append(input == 0 ? 1.0 : (double) output / input).append('\n');
+        metric(out, "http_active_connections", "gauge", "Client connections currently open.",
+                activeConnections.sum());
+        header(out, "http_request_duration_seconds", "histogram",
+                "Time from a parsed request to its queued response.");
+        histogram(out, "http_request_duration_seconds", "", requestDuration);
+        header(out, "http_request_phase_duration_seconds", "histogram", "Time spent in each phase of a request.");
+        for (Phase phase : Phase.VALUES) {
+            histogram(out, "http_request_phase_duration_seconds", "phase=\"" + phase.label + "\",",
+                    phases[phase.ordinal()]);
+        }
+
+        List<Registered> values;
+        synchronized (this) {
+            values = new ArrayList<>(registered);
+        }
+        for (Registered value : values) {
+            metric(out, value.name, value.type, value.help, value.value.getAsLong());
+        }
+        return out.toString();
+    }
+
+    /**
+     * @param labels labels preceding {@code le}, each followed by a comma
+     */
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] counts = histogram.snapshot();
+        long cumulative = 0;
+        int index = 0;
+        for (int exponent = MIN_BUCKET_EXPONENT; exponent <= MAX_BUCKET_EXPONENT; exponent++) {
+            for (int end = LatencyHistogram.bucketsBelow(exponent); index < end; index++) {
+                cumulative += counts[index];
+            }
+            out.append(name).append("_bucket{").append(labels).append("le=\"").append((double) (1L << exponent) / 1e9)
+                    .append("\"} ").append(cumulative).append('\n');
+        }
+        for (; index < counts.length; index++) {
+            cumulative += counts[index];
+        }
+        String plainLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        out.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum").append(plainLabels).append(' ').append(histogram.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(plainLabels).append(' ').append(cumulative).append('\n');
+    }
+
+    /**
+     * Prints, every {@code seconds}, how many times each phase ran since the previous report and its median, 99th
+     * percentile and maximum duration.
+     */
+    private void startPhaseLog(long seconds) {
+        long[][] previous = new long[phases.length][];
+        for (int i = 0; i < phases.length; i++) {
+            previous[i] = phases[i].snapshot();
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "http-metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            StringBuilder line = new StringBuilder("Request phases over ").append(seconds).append("s:");
+            for (Phase phase : Phase.VALUES) {
+                long[] current = phases[phase.ordinal()].snapshot();
+                long[] interval = new long[current.length];
+                long count = 0;
+                for (int i = 0; i < current.length; i++) {
+                    interval[i] = current[i] - previous[phase.ordinal()][i];
+                    count += interval[i];
+                }
+                previous[phase.ordinal()] = current;
+                line.append(' ').append(phase.label).append(" n=").append(count);
+                if (count > 0) {
+                    line.append(" p50=").append(micros(LatencyHistogram.valueAt(interval, 0.5)))
+                            .append(" p99=").append(micros(LatencyHistogram.valueAt(interval, 0.99)))
+                            .append(" max=").append(micros(LatencyHistogram.valueAt(interval, 1.0)));
+                }
+                line.append(';');
+            }
+            System.out.println(line);
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private static String micros(long nanos) {
+        return nanos / 1000 + "us";
+    }
+
+    private static void metric(StringBuilder out, String name, String type, String help, long value) {
+        header(out, name, type, help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Parts of a request that are timed separately. Large files sent gzip compressed are read and compressed while
+     * they are written, so that time counts as {@link #WRITE}. The NIO engine times every write attempt on its own.
+     */
+    enum Phase {
+        /**
+         * Parsing the request head that completes a request.
+         */
+        PARSE("parse"),
+        /**
+         * Mapping the URI to a file.
+         */
+        RESOLVE("resolve"),
+        /**
+         * Getting the file contents, from the cache or disk, or its mapping.
+         */
+        READ("read"),
+        /**
+         * Compressing a cached file, nearly free once its compressed form is cached too.
+         */
+        GZIP("gzip"),
+        /**
+         * Writing queued responses to the socket.
+         */
+        WRITE("write");
+
+        private static final Phase[] VALUES = values();
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private record Registered(String name, String type, String help, LongSupplier value) {
+    }
+}
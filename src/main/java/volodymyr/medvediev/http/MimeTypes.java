@@ -0,0 +1,69 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Maps file extensions to media types. Built-in types can be overridden and new ones added with
+ * {@code server.mime.<extension>=<type>} properties.
+ */
+final class MimeTypes {
+
+    private static final String PARAM_PREFIX = "server.mime.";
+    private static final String DEFAULT_TYPE = "application/octet-stream";
+
+    private final Map<String, String> types = new HashMap<>();
+
+    MimeTypes(Properties config) {
+        types.put("html", "text/html");
+        types.put("htm", "text/html");
+        types.put("css", "text/css");
+        types.put("js", "text/javascript");
+        types.put("mjs", "text/javascript");
+        types.put("json", "application/json");
+        types.put("map", "application/json");
+        types.put("txt", "text/plain");
+        types.put("xml", "application/xml");
+        types.put("svg", "image/svg+xml");
+        types.put("png", "image/png");
+        types.put("jpg", "image/jpeg");
+        types.put("jpeg", "image/jpeg");
+        types.put("gif", "image/gif");
+        types.put("webp", "image/webp");
+        types.put("ico", "image/x-icon");
+        types.put("woff", "font/woff");
+        types.put("woff2", "font/woff2");
+        types.put("ttf", "font/ttf");
+        types.put("otf", "font/otf");
+        types.put("wasm", "application/wasm");
+        types.put("pdf", "application/pdf");
+        types.put("zip", "application/zip");
+        types.put("gz", "application/gzip");
+        types.put("mp3", "audio/mpeg");
+        types.put("mp4", "video/mp4");
+        types.put("webm", "video/webm");
+
+        for (String name : config.stringPropertyNames()) {
+            if (name.startsWith(PARAM_PREFIX)) {
+                types.put(name.substring(PARAM_PREFIX.length()).toLowerCase(Locale.ROOT),
+                        Config.require(config, name));
+            }
+        }
+    }
+
+    /**
+     * @return the media type for the extension of {@code file}, {@code application/octet-stream} if it is unknown
+     */
+    String of(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return DEFAULT_TYPE;
+        }
+        String type = types.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type == null ? DEFAULT_TYPE : type;
+    }
+}
@@ -0,0 +1,235 @@
+package volodymyr.medvediev.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded loop serving many connections: reads until {@link RequestParser} has a complete request head,
+ * runs the request through {@link RequestProcessor} and writes the response back as the socket becomes writable.
+ */
+final class NioEventLoop implements Runnable {
+
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 1000L;
+
+    private final Selector selector;
+    private final RequestProcessor processor;
+    private final KeepAlive keepAlive;
+    private final Metrics metrics;
+    private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+    private long lastIdleCheck = System.nanoTime();
+
+    NioEventLoop(RequestProcessor processor, KeepAlive keepAlive, Metrics metrics) throws IOException {
+        this.selector = Selector.open();
+        this.processor = processor;
+        this.keepAlive = keepAlive;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Hands an accepted connection over to this loop. Safe to call from any thread.
+     */
+    void register(SocketChannel channel) {
+        pending.add(channel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select(IDLE_CHECK_INTERVAL_MILLIS);
+                registerPending();
+                closeIdle();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = pending.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                // batches are written whole, Nagle's algorithm would only hold back their last segment
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.register(selector, SelectionKey.OP_READ, new Connection());
+                metrics.connectionOpened();
+            } catch (IOException e) {
+                close(channel);
+            }
+        }
+    }
+
+    /**
+     * Closes connections that have not made progress within the keep-alive timeout.
+     */
+    private void closeIdle() {
+        long now = System.nanoTime();
+        if (now - lastIdleCheck < TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL_MILLIS)) {
+            return;
+        }
+        lastIdleCheck = now;
+        long timeout = TimeUnit.MILLISECONDS.toNanos(keepAlive.timeoutMillis());
+        for (SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if (connection != null && now - connection.lastActive > timeout) {
+                close(key);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                read(key, channel, connection);
+            } else if (key.isWritable()) {
+                write(key, channel, connection);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println(e.getMessage());
+            close(key);
+        }
+    }
+
+    private void read(SelectionKey key, SocketChannel channel, Connection connection) throws IOException {
+        if (connection.lingering) {
+            // the output is shut down, only waiting for the client to close; the idle check bounds how long
+            connection.buffer.clear();
+            if (channel.read(connection.buffer) < 0) {
+                close(key);
+            }
+            return;
+        }
+        if (channel.read(connection.buffer) < 0) {
+            close(key);
+            return;
+        }
+        connection.lastActive = System.nanoTime();
+        serve(key, channel, connection);
+    }
+
+    /**
+     * Processes the complete requests in the buffer, in order, and starts writing their responses as one batch.
+     * Parsing stops once the batch is full, see {@link ResponseQueue#isBatchFull()}, and reading is suspended until
+     * it is written; the requests left in the buffer are served after that.
+     * <p>
+     * A request that cannot be parsed, or a head that does not fit the buffer, is answered with an error page after
+     * the responses before it and ends the connection.
+     */
+    private void serve(SelectionKey key, SocketChannel channel, Connection connection) throws IOException {
+        ByteBuffer buffer = connection.buffer.flip();
+        boolean served = false;
+        try {
+            while (connection.keepAlive && !connection.response.isBatchFull()
+                    && processor.parse(buffer, connection.request)) {
+                if (connection.remoteHost == null) {
+                    connection.remoteHost = ((InetSocketAddress) channel.getRemoteAddress()).getAddress()
+                            .getHostAddress();
+                }
+                connection.keepAlive = processor.process(connection.request, connection.response,
+                        connection.remoteHost, keepAlive.allows(connection.served++));
+                // a body or pipelined requests left unread when closing could reset the connection
+                connection.lingering = !connection.keepAlive
+                        && (connection.request.hasBody() || buffer.hasRemaining());
+                served = true;
+            }
+        } catch (BadRequestException e) {
+            reject(connection, e.status());
+            served = true;
+        } finally {
+            // keep whatever the client already sent after the last served request
+            buffer.compact();
+        }
+
+        if (!served && !buffer.hasRemaining()) {
+            reject(connection, Http.Status.REQUEST_HEADER_FIELDS_TOO_LARGE);
+            served = true;
+        }
+        if (served) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            write(key, channel, connection);
+        }
+    }
+
+    /**
+     * Queues the error page for {@code status} as the last response of the connection. Once it is written the
+     * connection lingers until the client closes it, closing with unread input would reset the connection and could
+     * discard the response before the client reads it.
+     */
+    private void reject(Connection connection, String status) throws IOException {
+        processor.reject(connection.response, status);
+        connection.keepAlive = false;
+        connection.lingering = true;
+    }
+
+    private void write(SelectionKey key, SocketChannel channel, Connection connection) throws IOException {
+        long start = System.nanoTime();
+        boolean written = connection.response.writeTo(channel);
+        metrics.phase(Metrics.Phase.WRITE, System.nanoTime() - start);
+        metrics.bytesSent(connection.response.takeWritten());
+        connection.lastActive = System.nanoTime();
+        if (!written) {
+            return;
+        }
+        if (connection.keepAlive) {
+            key.interestOps(SelectionKey.OP_READ);
+            serve(key, channel, connection);
+        } else if (connection.lingering) {
+            channel.shutdownOutput();
+            key.interestOps(SelectionKey.OP_READ);
+        } else {
+            close(key);
+        }
+    }
+
+    private void close(SelectionKey key) {
+        if (!key.isValid()) {
+            // already closed while handling an earlier event
+            return;
+        }
+        metrics.connectionClosed();
+        close((SocketChannel) key.channel());
+        try {
+            ((Connection) key.attachment()).response.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static final class Connection {
+        private final ByteBuffer buffer = ByteBuffer.allocate(RequestParser.MAX_HEAD_SIZE);
+        private final HttpRequest request = new HttpRequest();
+        private final ResponseQueue response = new ResponseQueue();
+        private boolean keepAlive = true;
+        private boolean lingering;
+        private String remoteHost;
+        private int served;
+        private long lastActive = System.nanoTime();
+    }
+}
@@ -0,0 +1,46 @@
+package volodymyr.medvediev.http;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Properties;
+
+/**
+ * Engine that accepts connections on the calling thread and hands them to a small, fixed set of
+ * {@link NioEventLoop}s. Each loop multiplexes its connections over one {@link java.nio.channels.Selector}, so the
+ * number of open connections is not tied to the number of threads.
+ */
+final class NioHttpServer {
+
+    static final String THREADS_PARAM = "server.nio.threads";
+
+    private final NioEventLoop[] eventLoops;
+
+    NioHttpServer(Properties config, RequestProcessor processor, KeepAlive keepAlive, Metrics metrics)
+            throws IOException {
+        int count = Config.getInt(config, THREADS_PARAM, Runtime.getRuntime().availableProcessors());
+        eventLoops = new NioEventLoop[Math.max(1, count)];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop(processor, keepAlive, metrics);
+        }
+    }
+
+    /**
+     * Accepts connections from an already bound channel until it is closed.
+     */
+    void serve(ServerSocketChannel serverChannel) throws IOException {
+        for (int i = 0; i < eventLoops.length; i++) {
+            Thread thread = new Thread(eventLoops[i], "http-nio-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            SocketChannel client = HttpServer.accept(serverChannel);
+            if (client != null) {
+                eventLoops[next].register(client);
+                next = (next + 1) % eventLoops.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package volodymyr.medvediev.http;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class RequestExecutors {
+
+    private static final String EXECUTOR_PARAM = "server.executor";
+    private static final String MAX_SIZE_PARAM = "server.executor.max";
+    private static final String QUEUE_SIZE_PARAM = "server.executor.queue";
+
+    private static final String POOL_EXECUTOR = "pool";
+    private static final String VIRTUAL_EXECUTOR = "virtual";
+
+    private static final int DEFAULT_MAX_SIZE = 256;
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60L;
+
+    private RequestExecutors() {
+    }
+
+    /**
+     * Creates the executor selected by {@code server.executor}: either a bounded platform thread pool ({@code pool},
+     * the default) or a virtual thread per accepted connection ({@code virtual}).
+     */
+    static ExecutorService create(Properties config) {
+        String type = Config.getString(config, EXECUTOR_PARAM, POOL_EXECUTOR);
+        switch (type) {
+            case POOL_EXECUTOR:
+                return createPool(config);
+            case VIRTUAL_EXECUTOR:
+                return createVirtual();
+            default:
+                throw new IllegalArgumentException("Unknown " + EXECUTOR_PARAM + ": " + type);
+        }
+    }
+
+    /**
+     * Creates a bounded pool for {@link HttpRequestHandler} tasks. Threads are started on demand up to
+     * {@code server.executor.max} before anything is queued and exit again after a minute without work. Once all
+     * threads are busy and the queue is full the request is answered with 503 Service Unavailable.
+     */
+    private static ExecutorService createPool(Properties config) {
+        int maxSize = Config.getInt(config, MAX_SIZE_PARAM, DEFAULT_MAX_SIZE);
+        int queueSize = Config.getInt(config, QUEUE_SIZE_PARAM, DEFAULT_QUEUE_SIZE);
+
+        // a ThreadPoolExecutor only grows past its core size once the queue is full, so core and max are the same
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxSize, maxSize, IDLE_THREAD_TIMEOUT_SECONDS,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), new HandlerThreadFactory(),
+                new ServiceUnavailablePolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Handlers only do blocking socket and file I/O, so each connection gets its own virtual thread and the number of
+     * concurrent clients is limited by memory rather than by platform threads.
+     */
+    private static ExecutorService createVirtual() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-handler-", 1).factory());
+    }
+
+    /**
+     * @return whether connections accepted by {@code executor} are waiting for a free thread
+     */
+    static boolean hasBacklog(ExecutorService executor) {
+        return executor instanceof ThreadPoolExecutor && !((ThreadPoolExecutor) executor).getQueue().isEmpty();
+    }
+
+    private static class HandlerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "http-handler-" + counter.incrementAndGet());
+        }
+    }
+
+    /**
+     * Rejected connections are answered on a virtual thread of their own, so the accepting thread never waits for a
+     * client it cannot serve.
+     */
+    private static class ServiceUnavailablePolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (r instanceof HttpRequestHandler) {
+                Thread.ofVirtual().name("http-reject").start(((HttpRequestHandler) r)::reject);
+            }
+        }
+    }
+}
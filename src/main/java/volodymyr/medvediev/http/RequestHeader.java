@@ -0,0 +1,86 @@
+package volodymyr.medvediev.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request headers the server reads. {@link #lookup} maps a header name straight from the received bytes to its
+ * constant through a small open addressing table, so recognising a header allocates nothing and its value can be
+ * stored by ordinal.
+ */
+enum RequestHeader {
+    ACCEPT_ENCODING(Http.Header.ACCEPT_ENCODING),
+    CONNECTION(Http.Header.CONNECTION_REQUEST),
+    CONTENT_LENGTH(Http.Header.CONTENT_LENGTH_REQUEST),
+    REFERER(Http.Header.REFERER),
+    TRANSFER_ENCODING(Http.Header.TRANSFER_ENCODING_REQUEST),
+    USER_AGENT(Http.Header.UA);
+
+    private static final RequestHeader[] VALUES = values();
+    private static final int TABLE_SIZE = 16;
+    private static final RequestHeader[] TABLE = new RequestHeader[TABLE_SIZE];
+
+    static {
+        for (RequestHeader header : VALUES) {
+            int slot = hash(header.name, 0, header.name.length) & (TABLE_SIZE - 1);
+            while (TABLE[slot] != null) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            TABLE[slot] = header;
+        }
+    }
+
+    /**
+     * Lower case name as it is matched against requests.
+     */
+    private final byte[] name;
+
+    RequestHeader(String name) {
+        this.name = name.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static int count() {
+        return VALUES.length;
+    }
+
+    /**
+     * @return the header named by {@code bytes[start, end)}, ignoring case, or {@code null} if it is not one of these
+     */
+    static RequestHeader lookup(byte[] bytes, int start, int end) {
+        int slot = hash(bytes, start, end) & (TABLE_SIZE - 1);
+        RequestHeader header;
+        while ((header = TABLE[slot]) != null) {
+            if (header.matches(bytes, start, end)) {
+                return header;
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return null;
+    }
+
+    private boolean matches(byte[] bytes, int start, int end) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (toLowerCase(bytes[start + i]) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Case-insensitive hash of the length and the first and last characters, which already tells the known names
+     * apart.
+     */
+    private static int hash(byte[] bytes, int start, int end) {
+        if (start == end) {
+            return 0;
+        }
+        return (end - start) * 31 * 31 + toLowerCase(bytes[start]) * 31 + toLowerCase(bytes[end - 1]);
+    }
+
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+}
@@ -0,0 +1,195 @@
+package volodymyr.medvediev.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Parses request heads straight from the bytes received on a connection. Nothing is allocated for the parts the
+ * server ignores: headers that are not a {@link RequestHeader} are skipped in place and only the request line and the
+ * known headers are turned into strings, with the common method and protocol values shared.
+ * <p>
+ * Parsing restarts from the buffer position on every call, so a caller only needs to keep the bytes received so far.
+ */
+final class RequestParser {
+
+    /**
+     * Largest request head accepted, request line and headers together. Both engines buffer this much per connection.
+     */
+    static final int MAX_HEAD_SIZE = 16 * 1024;
+
+    private static final byte[] GET = Http.Method.GET.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1_0 = Http.Protocol.HTTP_1_0.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1_1 = Http.Protocol.HTTP_1_1.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_SLASH = "HTTP/".getBytes(StandardCharsets.US_ASCII);
+
+    private RequestParser() {
+    }
+
+    /**
+     * Parses the request head starting at the buffer position into {@code request}.
+     *
+     * @return {@code true} with the buffer positioned right after the head once it is complete, {@code false} with
+     * the position unchanged when more bytes are needed
+     * @throws BadRequestException if the request line is malformed or asks for a protocol other than HTTP/1.x
+     */
+    static boolean parse(ByteBuffer buffer, HttpRequest request) throws BadRequestException {
+        byte[] bytes = buffer.array();
+        int offset = buffer.arrayOffset();
+        int limit = offset + buffer.limit();
+        int pos = offset + buffer.position();
+
+        // empty lines before the request line are allowed and ignored
+        while (pos < limit && (bytes[pos] == '\r' || bytes[pos] == '\n')) {
+            pos++;
+        }
+
+        int lineEnd = indexOf(bytes, '\n', pos, limit);
+        if (lineEnd < 0) {
+            return false;
+        }
+        request.reset();
+        parseRequestLine(bytes, pos, trimEnd(bytes, pos, lineEnd), request);
+        pos = lineEnd + 1;
+
+        while (true) {
+            lineEnd = indexOf(bytes, '\n', pos, limit);
+            if (lineEnd < 0) {
+                return false;
+            }
+            int end = trimEnd(bytes, pos, lineEnd);
+            if (end == pos) {
+                buffer.position(lineEnd + 1 - offset);
+                return true;
+            }
+            parseHeader(bytes, pos, end, request);
+            pos = lineEnd + 1;
+        }
+    }
+
+    private static void parseRequestLine(byte[] bytes, int start, int end, HttpRequest request)
+            throws BadRequestException {
+        int methodEnd = indexOf(bytes, ' ', start, end);
+        int resourceStart = skipSpaces(bytes, methodEnd + 1, end);
+        int resourceEnd = indexOf(bytes, ' ', resourceStart, end);
+        int protocolStart = skipSpaces(bytes, resourceEnd + 1, end);
+        if (methodEnd <= start || resourceEnd < 0 || resourceStart == resourceEnd || protocolStart == end
+                || containsControl(bytes, start, end)) {
+            throw new BadRequestException("Malformed request line", Http.Status.BAD_REQUEST);
+        }
+
+        request.method(matches(bytes, start, methodEnd, GET)
+                ? Http.Method.GET
+                : new String(bytes, start, methodEnd - start, StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT));
+        request.resource(lowerCase(bytes, resourceStart, resourceEnd));
+        request.protocol(protocol(bytes, protocolStart, end));
+    }
+
+    /**
+     * Only the two shared protocol values are ever kept. A later HTTP/1 minor version is served as HTTP/1.1, the
+     * highest one supported.
+     */
+    private static String protocol(byte[] bytes, int start, int end) throws BadRequestException {
+        if (matches(bytes, start, end, HTTP_1_1)) {
+            return Http.Protocol.HTTP_1_1;
+        }
+        if (matches(bytes, start, end, HTTP_1_0)) {
+            return Http.Protocol.HTTP_1_0;
+        }
+        int major = start + HTTP_SLASH.length;
+        if (end - start != HTTP_1_1.length || !matches(bytes, start, major, HTTP_SLASH)
+                || !isDigit(bytes[major]) || bytes[major + 1] != '.' || !isDigit(bytes[major + 2])) {
+            throw new BadRequestException("Malformed protocol", Http.Status.BAD_REQUEST);
+        }
+        if (bytes[major] != '1') {
+            throw new BadRequestException("Unsupported protocol", Http.Status.HTTP_VERSION_NOT_SUPPORTED);
+        }
+        return Http.Protocol.HTTP_1_1;
+    }
+
+    private static void parseHeader(byte[] bytes, int start, int end, HttpRequest request) {
+        int colon = indexOf(bytes, ':', start, end);
+        if (colon <= start) {
+            return;
+        }
+        RequestHeader header = RequestHeader.lookup(bytes, start, colon);
+        if (header != null) {
+            request.header(header, value(bytes, colon + 1, end));
+        }
+    }
+
+    private static String value(byte[] bytes, int start, int end) {
+        start = skipSpaces(bytes, start, end);
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Request paths are matched case-insensitively, lower casing only allocates a second string when needed.
+     */
+    private static String lowerCase(byte[] bytes, int start, int end) {
+        String value = new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        for (int i = start; i < end; i++) {
+            if (bytes[i] >= 'A' && bytes[i] <= 'Z') {
+                return value.toLowerCase(Locale.ROOT);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Control characters, a lone carriage return in particular, are not allowed in a request line. Another server
+     * or proxy may take them for the end of the line and read the rest as a header.
+     */
+    private static boolean containsControl(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] >= 0 && bytes[i] < ' ' && bytes[i] != '\t' || bytes[i] == 0x7f) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int indexOf(byte[] bytes, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpaces(byte[] bytes, int from, int to) {
+        while (from < to && (bytes[from] == ' ' || bytes[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * @return the end of the line starting at {@code start} and ending before {@code lineEnd}, without the trailing
+     * carriage return and whitespace
+     */
+    private static int trimEnd(byte[] bytes, int start, int lineEnd) {
+        int end = lineEnd;
+        while (end > start && (bytes[end - 1] == '\r' || bytes[end - 1] == ' ' || bytes[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean matches(byte[] bytes, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
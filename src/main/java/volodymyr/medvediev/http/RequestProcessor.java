@@ -0,0 +1,259 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Turns a parsed request into a response queued on the connection. Shared by the blocking and the NIO engines, so it
+ * holds no per-connection state.
+ */
+final class RequestProcessor {
+
+    private static final String INDEX_HTML = "index.html";
+    private static final String GZIP = "gzip";
+    private static final String KEEP_ALIVE = "keep-alive";
+    private static final String CLOSE = "close";
+
+    private final ResponseHeaders headers;
+    private final String webRoot;
+    private final FileCache fileCache;
+    private final MappedFiles mappedFiles;
+    private final MimeTypes mimeTypes;
+    private final ResolvedPaths resolvedPaths;
+    private final ErrorPages errorPages;
+    private final AccessLog accessLog;
+    private final Metrics metrics;
+
+    RequestProcessor(Properties config, FileCache fileCache, MappedFiles mappedFiles, MimeTypes mimeTypes,
+                     ResolvedPaths resolvedPaths, ErrorPages errorPages, AccessLog accessLog, Metrics metrics) {
+        headers = new ResponseHeaders(Config.require(config, Config.SERVER_VERSION_PARAM));
+        // served files are named by their absolute, normalized path, which the caches are keyed by
+        webRoot = Path.of(Config.require(config, Config.WEB_ROOT_PARAM)).toAbsolutePath().normalize().toString();
+        this.fileCache = fileCache;
+        this.mappedFiles = mappedFiles;
+        this.mimeTypes = mimeTypes;
+        this.resolvedPaths = resolvedPaths;
+        this.errorPages = errorPages;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Serves {@code request}. The response is only queued on {@code response}, so the transport can send the
+     * responses to several pipelined requests in one go.
+     *
+     * @param remoteHost       textual address of the client, resolved once per connection
+     * @param keepAliveAllowed whether the transport is willing to keep the connection open after this response
+     * @return whether the connection stays open for another request
+     */
+    boolean process(HttpRequest request, ResponseQueue response, String remoteHost, boolean keepAliveAllowed)
+            throws IOException {
+        long start = System.nanoTime();
+        String method = request.method();
+        String resource = request.resource();
+        String protocol = request.protocol();
+
+        String status;
+        File outputFile = null;
+
+        if (resource.contains("./") || resource.contains("../")) {
+            status = Http.Status.BAD_REQUEST;
+        } else if (Http.Method.GET.equals(method) && metrics.isEndpoint(resource)) {
+            return serveMetrics(request, response, remoteHost, keepAliveAllowed, start);
+        } else if (Http.Method.GET.equals(method)) {
+            ResolvedPaths.Resolution resolution = resolvedPaths.get(resource);
+            if (resolution == null) {
+                resolution = resolve(resource);
+            }
+            status = resolution.status();
+            outputFile = resolution.file();
+            metrics.phase(Metrics.Phase.RESOLVE, System.nanoTime() - start);
+        } else {
+            status = Http.Status.NOT_IMPLEMENTED;
+        }
+
+        HttpDate date = HttpDate.now();
+        String contentEncoding = getContentEncoding(request);
+        boolean keepAlive = keepAliveAllowed && isKeepAliveRequested(protocol, request);
+
+        if (outputFile != null) {
+            try {
+                long bytesSent = writeFile(response, outputFile, protocol, status, date, contentEncoding, keepAlive);
+                accessLog.log(remoteHost, date, request, status, bytesSent);
+                metrics.request(status, System.nanoTime() - start);
+                return keepAlive;
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                // deleted since it was resolved, nothing has been queued yet
+                resolvedPaths.remove(resource);
+                status = Http.Status.NOT_FOUND;
+            }
+        }
+
+        int length = errorPages.write(response, status, date, contentEncoding != null, keepAlive);
+        accessLog.log(remoteHost, date, request, status, length);
+        metrics.request(status, System.nanoTime() - start);
+        return keepAlive;
+    }
+
+    /**
+     * Queues the headers and the contents of {@code file}. The file is opened or read before anything is queued, so
+     * a file that has disappeared leaves the response untouched.
+     *
+     * @return the length of the body, or {@code -1} when it is compressed while being sent
+     */
+    private long writeFile(ResponseQueue response, File outputFile, String protocol, String status, HttpDate date,
+                           String contentEncoding, boolean keepAlive) throws IOException {
+        OutputStream outputStream = response.stream();
+        long readStart = System.nanoTime();
+        FileCache.Entry content = fileCache.cached(outputFile);
+        boolean cacheable = content != null || fileCache.isCacheable(outputFile);
+        if (!cacheable && !Http.Protocol.HTTP_1_1.equals(protocol)) {
+            // no chunked coding before HTTP/1.1, send the large file as is rather than ending the body by closing
+            contentEncoding = null;
+        }
+
+        if (cacheable) {
+            if (content == null) {
+                content = fileCache.read(outputFile);
+            }
+            long gzipStart = System.nanoTime();
+            metrics.phase(Metrics.Phase.READ, gzipStart - readStart);
+            byte[] body = content.data();
+            if (contentEncoding != null) {
+                body = content.gzip();
+                metrics.phase(Metrics.Phase.GZIP, System.nanoTime() - gzipStart);
+                metrics.gzip(content.data().length, body.length);
+            }
+            headers.write(outputStream, status, content.mimeType(), date, body.length, contentEncoding, keepAlive);
+            response.addBytes(body);
+            return body.length;
+        }
+        if (contentEncoding == null) {
+            // large files go straight from the page cache to the socket
+            String mimeType = mimeTypes.of(outputFile);
+            ByteBuffer mapped = mappedFiles.map(outputFile);
+            if (mapped != null) {
+                metrics.phase(Metrics.Phase.READ, System.nanoTime() - readStart);
+                long length = mapped.remaining();
+                headers.write(outputStream, status, mimeType, date, length, null, keepAlive);
+                response.addBuffer(mapped);
+                return length;
+            }
+            FileChannel file = FileChannel.open(outputFile.toPath(), StandardOpenOption.READ);
+            metrics.phase(Metrics.Phase.READ, System.nanoTime() - readStart);
+            long length = file.size();
+            headers.write(outputStream, status, mimeType, date, length, null, keepAlive);
+            response.addFile(file, length);
+            return length;
+        }
+        // large files are compressed while they are sent, so their length is only known at the end and both
+        // reading and compressing them count as writing
+        FileChannel file = FileChannel.open(outputFile.toPath(), StandardOpenOption.READ);
+        headers.write(outputStream, status, mimeTypes.of(outputFile), date, ResponseHeaders.CHUNKED,
+                contentEncoding, keepAlive);
+        response.addGzipFile(file);
+        return -1;
+    }
+
+    private boolean serveMetrics(HttpRequest request, ResponseQueue response, String remoteHost,
+                                 boolean keepAliveAllowed, long start) throws IOException {
+        String protocol = request.protocol();
+        boolean keepAlive = keepAliveAllowed && isKeepAliveRequested(protocol, request);
+        HttpDate date = HttpDate.now();
+        byte[] body = metrics.render().getBytes(StandardCharsets.UTF_8);
+        headers.write(response.stream(), Http.Status.OK, Metrics.CONTENT_TYPE, date, body.length, null,
+                keepAlive);
+        response.addBytes(body);
+        accessLog.log(remoteHost, date, request, Http.Status.OK, body.length);
+        metrics.request(Http.Status.OK, System.nanoTime() - start);
+        return keepAlive;
+    }
+
+    /**
+     * Parses the next request from {@code buffer}, see {@link RequestParser#parse}, timing the parse that completes
+     * it.
+     */
+    boolean parse(ByteBuffer buffer, HttpRequest request) throws BadRequestException {
+        long start = System.nanoTime();
+        if (!RequestParser.parse(buffer, request)) {
+            return false;
+        }
+        metrics.phase(Metrics.Phase.PARSE, System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * Queues the error page for {@code status} for a request that is not processed, either because the server is too
+     * busy or because the request could not be parsed. The response closes the connection.
+     */
+    void reject(ResponseQueue response, String status) throws IOException {
+        errorPages.write(response, status, HttpDate.now(), false, false);
+        metrics.response(status);
+    }
+
+    /**
+     * HTTP/1.1 connections are persistent unless the client asks to close them, HTTP/1.0 ones only on request. A
+     * request with a body always closes the connection, see {@link HttpRequest#hasBody}.
+     */
+    private boolean isKeepAliveRequested(String protocol, HttpRequest request) {
+        if (request.hasBody()) {
+            return false;
+        }
+        String connection = request.header(RequestHeader.CONNECTION);
+        if (Http.Protocol.HTTP_1_1.equals(protocol)) {
+            return !containsIgnoreCase(connection, CLOSE);
+        }
+        return containsIgnoreCase(connection, KEEP_ALIVE);
+    }
+
+    private static boolean containsIgnoreCase(String value, String token) {
+        for (int i = 0; i <= value.length() - token.length(); i++) {
+            if (value.regionMatches(true, i, token, 0, token.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ResolvedPaths.Resolution resolve(String resource) {
+        File outputFile = new File(this.webRoot, resolveResource(resource));
+
+        if (outputFile.exists()) {
+            if (outputFile.isDirectory()) {
+                outputFile = new File(outputFile, INDEX_HTML);
+            }
+            if (outputFile.exists()) {
+                return resolvedPaths.put(resource, outputFile, Http.Status.OK);
+            }
+        }
+        return resolvedPaths.put(resource, null, Http.Status.NOT_FOUND);
+    }
+
+    private String resolveResource(String requestedPath) {
+        Path resolvedPath = FileSystems.getDefault().getPath("");
+        Path other = FileSystems.getDefault().getPath(requestedPath);
+        for (Path path : other) {
+            if (!path.startsWith(".") && !path.startsWith("..")) {
+                resolvedPath = resolvedPath.resolve(path);
+            }
+        }
+        if (resolvedPath.startsWith("")) {
+            resolvedPath = resolvedPath.resolve(INDEX_HTML);
+        }
+        return resolvedPath.toString();
+    }
+
+    private String getContentEncoding(HttpRequest request) {
+        return request.header(RequestHeader.ACCEPT_ENCODING).contains(GZIP) ? GZIP : null;
+    }
+}
@@ -0,0 +1,101 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which file and status a request URI resolved to, so repeated requests skip building the path and the
+ * {@code exists}/{@code isDirectory} checks. Found files are trusted for {@code server.paths.ttl} milliseconds, misses
+ * for the shorter {@code server.paths.negative.ttl} so that newly deployed files show up quickly. A {@link FileWatcher}
+ * forgets all of them as soon as something changes on disk, the timeouts then only bound how long a missed change
+ * goes unnoticed.
+ * <p>
+ * At most {@code server.paths.size} URIs are remembered. Once full, new URIs are resolved without being cached and
+ * expired entries are swept out at most once per the longer of the two timeouts, so a flood of unique URIs costs one
+ * pass over the map per interval rather than one per request.
+ */
+final class ResolvedPaths {
+
+    private static final String SIZE_PARAM = "server.paths.size";
+    static final String TTL_PARAM = "server.paths.ttl";
+    static final String NEGATIVE_TTL_PARAM = "server.paths.negative.ttl";
+
+    private static final int DEFAULT_SIZE = 10_000;
+    private static final long DEFAULT_TTL = 2000;
+    private static final long DEFAULT_NEGATIVE_TTL = 500;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final Map<String, Resolution> resolutions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+
+    ResolvedPaths(int maxSize, long ttlMillis, long negativeTtlMillis) {
+        this.maxSize = maxSize;
+        ttlNanos = ttlMillis * 1_000_000;
+        negativeTtlNanos = negativeTtlMillis * 1_000_000;
+    }
+
+    static ResolvedPaths fromConfig(Properties config) {
+        return new ResolvedPaths(Config.getInt(config, SIZE_PARAM, DEFAULT_SIZE),
+                Config.getLong(config, TTL_PARAM, DEFAULT_TTL),
+                Config.getLong(config, NEGATIVE_TTL_PARAM, DEFAULT_NEGATIVE_TTL));
+    }
+
+    /**
+     * @return the cached resolution of {@code resource}, or {@code null} if there is none or it has expired
+     */
+    Resolution get(String resource) {
+        Resolution resolution = resolutions.get(resource);
+        if (resolution == null || System.nanoTime() - resolution.expiresAt > 0) {
+            return null;
+        }
+        return resolution;
+    }
+
+    Resolution put(String resource, File file, String status) {
+        long now = System.nanoTime();
+        Resolution resolution = new Resolution(file, status,
+                now + (Http.Status.OK.equals(status) ? ttlNanos : negativeTtlNanos));
+        if (resolutions.size() >= maxSize && !resolutions.containsKey(resource) && !sweep(now)) {
+            return resolution;
+        }
+        resolutions.put(resource, resolution);
+        return resolution;
+    }
+
+    /**
+     * Forgets the resolution of {@code resource}, for when it turned out to be stale.
+     */
+    void remove(String resource) {
+        resolutions.remove(resource);
+    }
+
+    void clear() {
+        resolutions.clear();
+    }
+
+    /**
+     * Drops expired entries unless that was already done within the last sweep interval. Every entry present at a
+     * sweep has expired by the next one, so it always frees the slots of the URIs that were cached in between.
+     *
+     * @return whether there is room for another entry
+     */
+    private boolean sweep(long now) {
+        long next = nextSweep.get();
+        if (now - next < 0 || !nextSweep.compareAndSet(next, now + Math.max(ttlNanos, negativeTtlNanos))) {
+            return false;
+        }
+        resolutions.values().removeIf(r -> now - r.expiresAt > 0);
+        return resolutions.size() < maxSize;
+    }
+
+    /**
+     * @param file the file to serve, {@code null} when nothing was found
+     */
+    record Resolution(File file, String status, long expiresAt) {
+    }
+}
@@ -0,0 +1,120 @@
+package volodymyr.medvediev.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static volodymyr.medvediev.http.Http.Header.CONNECTION;
+import static volodymyr.medvediev.http.Http.Header.CONTENT_ENCODING;
+import static volodymyr.medvediev.http.Http.Header.CONTENT_LENGTH;
+import static volodymyr.medvediev.http.Http.Header.CONTENT_TYPE;
+import static volodymyr.medvediev.http.Http.Header.DATE;
+import static volodymyr.medvediev.http.Http.Header.SERVER;
+import static volodymyr.medvediev.http.Http.Header.TRANSFER_ENCODING;
+
+/**
+ * Writes response header blocks from fragments encoded once: status lines, always {@code HTTP/1.1} whatever the
+ * request said, {@code Server}, {@code Connection} and the
+ * other fixed lines are copied as bytes, only the length is rendered per response and {@code Content-Type} lines are
+ * encoded once per media type.
+ */
+final class ResponseHeaders {
+
+    /**
+     * Length of a response whose body is sent with the chunked transfer coding.
+     */
+    static final long CHUNKED = -1;
+
+    private static final String CRLF = "\r\n";
+    private static final String[] STATUSES = {
+            Http.Status.OK,
+            Http.Status.BAD_REQUEST,
+            Http.Status.NOT_FOUND,
+            Http.Status.REQUEST_HEADER_FIELDS_TOO_LARGE,
+            Http.Status.NOT_IMPLEMENTED,
+            Http.Status.SERVICE_UNAVAILABLE,
+            Http.Status.HTTP_VERSION_NOT_SUPPORTED
+    };
+
+    private static final byte[] CRLF_BYTES = encode(CRLF);
+    private static final byte[] DATE_BYTES = encode(DATE);
+    private static final byte[] CONTENT_LENGTH_BYTES = encode(CONTENT_LENGTH);
+    private static final byte[] CHUNKED_BYTES = encode(TRANSFER_ENCODING + "chunked" + CRLF);
+    private static final byte[] KEEP_ALIVE_BYTES = encode(CONNECTION + "keep-alive" + CRLF);
+    private static final byte[] CLOSE_BYTES = encode(CONNECTION + "close" + CRLF);
+
+    private final Map<String, byte[]> statusLines = new HashMap<>();
+    private final Map<String, byte[]> contentTypes = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> contentEncodings = new ConcurrentHashMap<>();
+    private final byte[] server;
+
+    ResponseHeaders(String serverVersion) {
+        server = encode(SERVER + serverVersion + CRLF);
+        for (String status : STATUSES) {
+            statusLines.put(status, encode(Http.Protocol.HTTP_1_1 + status + CRLF));
+        }
+    }
+
+    /**
+     * Writes the status line and headers of a response, including the empty line that ends them.
+     *
+     * @param length body length in bytes or {@link #CHUNKED}
+     */
+    void write(OutputStream out, String status, String mimeType, HttpDate date, long length,
+               String contentEncoding, boolean keepAlive) throws IOException {
+        writeUntilDate(out, status);
+        out.write(date.bytes());
+        writeAfterDate(out, mimeType, length, contentEncoding, keepAlive);
+    }
+
+    /**
+     * Writes the start of the header block, up to and including the {@code Date} header name.
+     */
+    void writeUntilDate(OutputStream out, String status) throws IOException {
+        out.write(statusLines.get(status));
+        out.write(server);
+        out.write(DATE_BYTES);
+    }
+
+    /**
+     * Writes the rest of the header block following the {@code Date} value.
+     *
+     * @param length body length in bytes or {@link #CHUNKED}
+     */
+    void writeAfterDate(OutputStream out, String mimeType, long length, String contentEncoding, boolean keepAlive)
+            throws IOException {
+        out.write(CRLF_BYTES);
+        if (contentEncoding != null) {
+            out.write(contentEncodings.computeIfAbsent(contentEncoding,
+                    encoding -> encode(CONTENT_ENCODING + encoding + CRLF)));
+        }
+        out.write(contentTypes.computeIfAbsent(String.valueOf(mimeType),
+                type -> encode(CONTENT_TYPE + type + ";charset=\"utf-8\"" + CRLF)));
+        if (length == CHUNKED) {
+            out.write(CHUNKED_BYTES);
+        } else {
+            out.write(CONTENT_LENGTH_BYTES);
+            writeDecimal(out, length);
+            out.write(CRLF_BYTES);
+        }
+        out.write(keepAlive ? KEEP_ALIVE_BYTES : CLOSE_BYTES);
+        out.write(CRLF_BYTES);
+    }
+
+    private static void writeDecimal(OutputStream out, long value) throws IOException {
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.write('0' + (int) (value / divisor % 10));
+        }
+    }
+
+    private static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,297 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Responses of one connection waiting to be written, in order. Bytes written to {@link #stream()} are queued as
+ * buffers, buffers added with {@link #addBuffer} are sent without copying and files added with {@link #addFile} are
+ * sent with {@link FileChannel#transferTo} so their contents never pass through the heap. Files added with
+ * {@link #addGzipFile} are compressed a buffer at a time by a pooled {@link GzipEncoder} as the socket accepts them, so
+ * memory per connection does not depend on the file size.
+ * <p>
+ * Responses to pipelined requests are batched, but only up to {@link #isBatchFull()}: each queued file holds an open
+ * channel, and a compressed one a pooled encoder, until it has been sent.
+ */
+final class ResponseQueue implements Closeable {
+
+    private static final int MAX_GATHER = 16;
+    private static final int STAGING_SIZE = 4096;
+    private static final int COPY_THRESHOLD = 2048;
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Deque<Part> parts = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final Sink staging = new Sink(STAGING_SIZE);
+    private int sealed;
+    private long buffered;
+    private int streams;
+    private long written;
+
+    /**
+     * Stream appending to the queue. Closing or flushing it has no effect. What is written goes to a staging buffer
+     * that the connection reuses once everything queued has been sent.
+     */
+    OutputStream stream() {
+        return staging;
+    }
+
+    /**
+     * Queues {@code bytes}, which must not change until they have been written. Small arrays are copied next to what
+     * precedes them, usually their headers, so that a whole response is one contiguous buffer; larger ones are queued
+     * as they are.
+     */
+    void addBytes(byte[] bytes) throws IOException {
+        if (bytes.length <= COPY_THRESHOLD) {
+            staging.write(bytes);
+        } else {
+            addBuffer(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    /**
+     * Queues the remaining bytes of {@code buffer} without copying them.
+     */
+    void addBuffer(ByteBuffer buffer) {
+        seal();
+        buffered += buffer.remaining();
+        parts.add(new BufferPart(buffer));
+    }
+
+    /**
+     * Queues {@code length} bytes of {@code file} to be sent as they are. The queue closes the channel once it has
+     * been sent or dropped.
+     */
+    void addFile(FileChannel file, long length) {
+        seal();
+        parts.add(new FilePart(file, length));
+        streams++;
+    }
+
+    /**
+     * Queues {@code file} to be sent gzip compressed with the chunked transfer coding. The queue closes the channel
+     * once it has been sent or dropped.
+     */
+    void addGzipFile(FileChannel file) throws IOException {
+        seal();
+        parts.add(new GzipFilePart(file));
+        streams++;
+    }
+
+    /**
+     * @return the number of bytes written to the channel since the last call
+     */
+    long takeWritten() {
+        long bytes = written;
+        written = 0;
+        return bytes;
+    }
+
+    /**
+     * @return whether the queue holds a file, or {@value #MAX_BATCH_BYTES} bytes or more, so that nothing else should
+     * be queued before it has been written
+     */
+    boolean isBatchFull() {
+        return streams > 0 || buffered + staging.size() >= MAX_BATCH_BYTES;
+    }
+
+    boolean isEmpty() {
+        return parts.isEmpty() && staging.size() == sealed;
+    }
+
+    /**
+     * Writes as much as the channel accepts. A blocking channel takes everything but may need several calls when the
+     * queue holds files.
+     *
+     * @return whether the queue has been fully written
+     */
+    boolean writeTo(SocketChannel channel) throws IOException {
+        seal();
+        while (!parts.isEmpty()) {
+            Part part = parts.peek();
+            if (part instanceof BufferPart) {
+                if (!writeBuffers(channel)) {
+                    return false;
+                }
+            } else {
+                StreamPart stream = (StreamPart) part;
+                if (!stream.writeTo(channel)) {
+                    return false;
+                }
+                parts.poll();
+                streams--;
+                stream.close();
+            }
+        }
+        staging.reset();
+        sealed = 0;
+        buffered = 0;
+        return true;
+    }
+
+    /**
+     * Drops everything not yet written and releases the queued files.
+     */
+    @Override
+    public void close() throws IOException {
+        staging.reset();
+        sealed = 0;
+        buffered = 0;
+        streams = 0;
+        Part part;
+        while ((part = parts.poll()) != null) {
+            if (part instanceof StreamPart) {
+                ((StreamPart) part).close();
+            }
+        }
+    }
+
+    /**
+     * Writes the leading run of buffers with one gathering write.
+     */
+    private boolean writeBuffers(SocketChannel channel) throws IOException {
+        int count = 0;
+        for (Part part : parts) {
+            if (!(part instanceof BufferPart) || count == MAX_GATHER) {
+                break;
+            }
+            gather[count++] = ((BufferPart) part).buffer;
+        }
+        written += channel.write(gather, 0, count);
+        for (int i = 0; i < count; i++) {
+            gather[i] = null;
+            if (((BufferPart) parts.peek()).buffer.hasRemaining()) {
+                return false;
+            }
+            parts.poll();
+        }
+        return true;
+    }
+
+    /**
+     * Queues what has been staged since the last call without copying it.
+     */
+    private void seal() {
+        if (staging.size() > sealed) {
+            parts.add(new BufferPart(staging.view(sealed)));
+            sealed = staging.size();
+        }
+    }
+
+    private interface Part {
+    }
+
+    /**
+     * Part produced or sent in steps, possibly over several {@link #writeTo} calls.
+     */
+    private interface StreamPart extends Part, Closeable {
+
+        /**
+         * @return whether the part has been fully written
+         */
+        boolean writeTo(SocketChannel channel) throws IOException;
+    }
+
+    private static final class BufferPart implements Part {
+        private final ByteBuffer buffer;
+
+        private BufferPart(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final class FilePart implements StreamPart {
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        private FilePart(FileChannel file, long length) {
+            this.file = file;
+            this.remaining = length;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            while (remaining > 0) {
+                long sent = file.transferTo(position, remaining, channel);
+                if (sent == 0) {
+                    if (position >= file.size()) {
+                        throw new IOException("File shrank while being sent");
+                    }
+                    return false;
+                }
+                position += sent;
+                remaining -= sent;
+                written += sent;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    private final class GzipFilePart implements StreamPart {
+        private final FileChannel file;
+        private final GzipEncoder encoder;
+        private ByteBuffer output;
+        private boolean closed;
+
+        private GzipFilePart(FileChannel file) throws IOException {
+            this.file = file;
+            encoder = GzipEncoder.acquire();
+            output = EMPTY;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            while (true) {
+                if (output.hasRemaining()) {
+                    written += channel.write(output);
+                    if (output.hasRemaining()) {
+                        return false;
+                    }
+                }
+                if (encoder.isFinished()) {
+                    return true;
+                }
+                output = encoder.next(file);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            encoder.release();
+            file.close();
+        }
+    }
+
+    /**
+     * Reusable in-memory stream whose contents can be written out without copying them first. Growing it leaves
+     * existing views on the previous array intact.
+     */
+    private static final class Sink extends ByteArrayOutputStream {
+
+        private Sink(int size) {
+            super(size);
+        }
+
+        private ByteBuffer view(int from) {
+            return ByteBuffer.wrap(buf, from, count - from);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AccessLogTest {
+
+    private static final int PRODUCERS = 4;
+    private static final long NO_ROTATION = Long.MAX_VALUE;
+
+    private final HttpRequest request = new HttpRequest();
+    private Path dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("access-log");
+        file = dir.resolve("access.log").toFile();
+        request.method(Http.Method.GET);
+        request.resource("/");
+        request.protocol(Http.Protocol.HTTP_1_1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void blockingRingDeliversEveryLineOnceInOrder() throws Exception {
+        int perProducer = 20_000;
+        // a ring much smaller than the burst wraps around thousands of times
+        AccessLog log = new AccessLog(file, NO_ROTATION, 1, 8, true, AccessLogFormat.COMMON);
+        produce(log, perProducer);
+        log.close();
+
+        assertEquals(0, log.dropped());
+        List<long[]> lines = parse(Files.readAllLines(file.toPath()));
+        assertEquals(PRODUCERS * perProducer, lines.size());
+        long[] next = new long[PRODUCERS];
+        for (long[] line : lines) {
+            int producer = (int) line[0];
+            assertEquals("producer " + producer, next[producer], line[1]);
+            next[producer]++;
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void droppingRingLosesLinesButNeverDuplicatesOrReordersThem() throws Exception {
+        int perProducer = 20_000;
+        AccessLog log = new AccessLog(file, NO_ROTATION, 1, 8, false, AccessLogFormat.COMMON);
+        produce(log, perProducer);
+        log.close();
+
+        List<long[]> lines = parse(Files.readAllLines(file.toPath()));
+        assertEquals(PRODUCERS * perProducer, lines.size() + log.dropped());
+        long[] last = {-1, -1, -1, -1};
+        for (long[] line : lines) {
+            int producer = (int) line[0];
+            assertTrue("producer " + producer + " went back to " + line[1], line[1] > last[producer]);
+            last[producer] = line[1];
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void rotatesAndKeepsTheConfiguredNumberOfFiles() throws Exception {
+        long fileMax = 2000;
+        int lineCount = 500;
+        AccessLog log = new AccessLog(file, fileMax, 2, 64, true, AccessLogFormat.COMMON);
+        for (int i = 0; i < lineCount; i++) {
+            log.log("10.0.0.0", HttpDate.now(), request, Http.Status.OK, i);
+        }
+        log.close();
+
+        File first = new File(file.getPath() + ".1");
+        File second = new File(file.getPath() + ".2");
+        assertTrue(first.isFile());
+        assertTrue(second.isFile());
+        assertFalse(new File(file.getPath() + ".3").exists());
+
+        List<String> kept = new ArrayList<>();
+        for (File rotated : new File[]{second, first, file}) {
+            assertTrue(rotated + " is " + rotated.length() + " bytes", rotated.length() <= fileMax);
+            kept.addAll(Files.readAllLines(rotated.toPath(), StandardCharsets.ISO_8859_1));
+        }
+        // the files hold the newest lines, oldest file first, without gaps
+        List<long[]> lines = parse(kept);
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(lineCount - lines.size() + i, lines.get(i)[1]);
+        }
+    }
+
+    @Test
+    public void appendsToAnExistingFile() throws Exception {
+        Files.write(file.toPath(), "earlier\n".getBytes(StandardCharsets.US_ASCII));
+        AccessLog log = new AccessLog(file, NO_ROTATION, 1, 8, true, AccessLogFormat.COMMON);
+        log.log("10.0.0.0", HttpDate.now(), request, Http.Status.OK, 0);
+        log.close();
+
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(2, lines.size());
+        assertEquals("earlier", lines.get(0));
+    }
+
+    /**
+     * Logs {@code perProducer} lines from each of {@value #PRODUCERS} threads started together. The host names the
+     * producer and the byte count numbers its lines.
+     */
+    private void produce(AccessLog log, int perProducer) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            String host = "10.0.0." + p;
+            producers[p] = new Thread(() -> {
+                HttpRequest own = new HttpRequest();
+                own.method(Http.Method.GET);
+                own.resource("/");
+                own.protocol(Http.Protocol.HTTP_1_1);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    log.log(host, HttpDate.now(), own, Http.Status.OK, i);
+                }
+            });
+            producers[p].start();
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+    }
+
+    /**
+     * @return the producer, taken from the last part of the host, and the byte count of every line
+     */
+    private static List<long[]> parse(List<String> lines) {
+        List<long[]> parsed = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            String host = line.substring(0, line.indexOf(' '));
+            String bytes = line.substring(line.lastIndexOf(' ') + 1);
+            parsed.add(new long[]{Long.parseLong(host.substring(host.lastIndexOf('.') + 1)), Long.parseLong(bytes)});
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,133 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedOutputStreamTest {
+
+    private static final int CHUNK_SIZE = 16;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ChunkedOutputStream chunked = new ChunkedOutputStream(out, CHUNK_SIZE);
+
+    @Test
+    public void emptyBodyIsTheLastChunkAlone() throws IOException {
+        chunked.close();
+
+        assertEquals("0\r\n\r\n", written());
+    }
+
+    @Test
+    public void splitsWritesIntoChunksOfAtMostTheChunkSize() throws IOException {
+        byte[] body = bytes(2 * CHUNK_SIZE + 5);
+        chunked.write(body, 0, 7);
+        chunked.write(body, 7, body.length - 7);
+        chunked.close();
+
+        assertEquals("10\r\n" + new String(body, 0, 16, StandardCharsets.ISO_8859_1) + "\r\n"
+                + "10\r\n" + new String(body, 16, 16, StandardCharsets.ISO_8859_1) + "\r\n"
+                + "5\r\n" + new String(body, 32, 5, StandardCharsets.ISO_8859_1) + "\r\n"
+                + "0\r\n\r\n", written());
+    }
+
+    @Test
+    public void bodyOfExactlyOneChunkHasNoEmptyChunkBeforeTheEnd() throws IOException {
+        byte[] body = bytes(CHUNK_SIZE);
+        for (byte b : body) {
+            chunked.write(b);
+        }
+        chunked.close();
+
+        assertEquals("10\r\n" + new String(body, StandardCharsets.ISO_8859_1) + "\r\n0\r\n\r\n", written());
+    }
+
+    @Test
+    public void flushSendsABufferedChunkButNeverAnEmptyOne() throws IOException {
+        chunked.write(bytes(3));
+        chunked.flush();
+        chunked.flush();
+        chunked.write(bytes(2));
+        chunked.close();
+
+        assertArrayEquals(concat(bytes(3), bytes(2)), dechunk(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void closingTwiceEndsTheBodyOnce() throws IOException {
+        chunked.write(bytes(3));
+        chunked.close();
+        chunked.close();
+
+        assertEquals("3\r\nabc\r\n0\r\n\r\n", written());
+    }
+
+    @Test
+    public void resetStartsANewBody() throws IOException {
+        chunked.write(bytes(3));
+        chunked.close();
+        chunked.write(bytes(CHUNK_SIZE + 1));
+        chunked.reset();
+        out.reset();
+
+        chunked.write(bytes(4));
+        chunked.close();
+        assertArrayEquals(bytes(4), dechunk(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    /**
+     * Reads one body framed with the chunked transfer coding, up to and including its last chunk and the empty
+     * trailer, failing on anything malformed.
+     */
+    static byte[] dechunk(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int size;
+        while ((size = Integer.parseInt(readLine(in), 16)) > 0) {
+            byte[] chunk = in.readNBytes(size);
+            assertEquals("truncated chunk", size, chunk.length);
+            body.write(chunk);
+            assertEquals("", readLine(in));
+        }
+        assertEquals("", readLine(in));
+        return body.toByteArray();
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            all.write(part, 0, part.length);
+        }
+        return all.toByteArray();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            assertTrue("stream ended inside a line", b >= 0);
+            line.append((char) b);
+        }
+        assertTrue("line not ended by CRLF", line.length() > 0 && line.charAt(line.length() - 1) == '\r');
+        return line.substring(0, line.length() - 1);
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        return bytes;
+    }
+
+    private String written() {
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,219 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Requests sent over a real connection, run against both engines by the subclasses.
+ */
+public abstract class ConnectionTest {
+
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    protected TestServer server;
+
+    protected abstract TestServer.Engine engine();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer(engine());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void servesPipelinedRequestsInOrder() throws IOException {
+        List<Response> responses = exchange("GET / HTTP/1.1\r\n\r\n"
+                + "GET /missing HTTP/1.1\r\n\r\n"
+                + "GET /css/main.css HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+        assertEquals(3, responses.size());
+        assertEquals("HTTP/1.1 200 OK", responses.get(0).status);
+        assertEquals("HTTP/1.1 404 Not Found", responses.get(1).status);
+        assertEquals("HTTP/1.1 200 OK", responses.get(2).status);
+        assertTrue(responses.get(2).headers.get("content-type").startsWith("text/css"));
+    }
+
+    @Test
+    public void doesNotTakeARequestBodyForTheNextRequest() throws IOException {
+        String smuggled = "GET /css/main.css HTTP/1.1\r\n\r\n";
+        List<Response> responses = exchange("POST / HTTP/1.1\r\n"
+                + "Content-Length: " + smuggled.length() + "\r\n\r\n"
+                + smuggled);
+
+        assertEquals(1, responses.size());
+        assertEquals("HTTP/1.1 501 Not Implemented", responses.get(0).status);
+        assertEquals("close", responses.get(0).headers.get("connection"));
+    }
+
+    @Test
+    public void doesNotTakeAChunkedBodyForTheNextRequest() throws IOException {
+        String smuggled = "GET /css/main.css HTTP/1.1\r\n\r\n";
+        List<Response> responses = exchange("GET / HTTP/1.1\r\n"
+                + "Transfer-Encoding: chunked\r\n\r\n"
+                + Integer.toHexString(smuggled.length()) + "\r\n" + smuggled + "\r\n0\r\n\r\n");
+
+        assertEquals(1, responses.size());
+        assertEquals("HTTP/1.1 200 OK", responses.get(0).status);
+        assertEquals("close", responses.get(0).headers.get("connection"));
+    }
+
+    @Test
+    public void keepsTheConnectionForAnEmptyBody() throws IOException {
+        List<Response> responses = exchange("GET / HTTP/1.1\r\nContent-Length: 0\r\n\r\n"
+                + "GET /css/main.css HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+        assertEquals(2, responses.size());
+        assertFalse("close".equals(responses.get(0).headers.get("connection")));
+    }
+
+    @Test
+    public void rejectsACarriageReturnInsideTheRequestLine() throws IOException {
+        List<Response> responses = exchange("GET /css/main.css HTTP/1.1\rSet-Cookie: a=b\r\n\r\n");
+
+        assertEquals(1, responses.size());
+        assertEquals("HTTP/1.1 400 Bad Request", responses.get(0).status);
+        assertFalse(responses.get(0).headers.containsKey("set-cookie"));
+    }
+
+    @Test
+    public void answersWithItsOwnProtocolVersion() throws IOException {
+        assertEquals("HTTP/1.1 505 HTTP Version Not Supported", exchange("GET / HTTP/9.9\r\n\r\n").get(0).status);
+        assertEquals("HTTP/1.1 200 OK", exchange("GET / HTTP/1.0\r\n\r\n").get(0).status);
+    }
+
+    @Test
+    public void streamsPipelinedLargeFilesOneBatchAtATime() throws IOException {
+        byte[] page = Files.readAllBytes(server.text("large.html", 10 * TestServer.CACHE_FILE_MAX).toPath());
+        StringBuilder requests = new StringBuilder();
+        int count = 50;
+        for (int i = 0; i < count; i++) {
+            requests.append("GET /large.html HTTP/1.1\r\n").append(i % 2 == 0 ? "Accept-Encoding: gzip\r\n" : "")
+                    .append("\r\n");
+        }
+        List<Response> responses = exchange(requests.append("GET / HTTP/1.1\r\nConnection: close\r\n\r\n")
+                .toString());
+
+        assertEquals(count + 1, responses.size());
+        for (int i = 0; i < count; i++) {
+            Response response = responses.get(i);
+            assertEquals("HTTP/1.1 200 OK", response.status);
+            byte[] body = i % 2 == 0
+                    ? new GZIPInputStream(new ByteArrayInputStream(response.body)).readAllBytes()
+                    : response.body;
+            assertArrayEquals("response " + i, page, body);
+        }
+    }
+
+    /**
+     * Sends {@code requests} on a new connection and reads responses until the server closes it.
+     */
+    protected List<Response> exchange(String requests) throws IOException {
+        return exchange(requests.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    protected List<Response> exchange(byte[] requests) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            OutputStream out = socket.getOutputStream();
+            out.write(requests);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            List<Response> responses = new ArrayList<>();
+            Response response;
+            while ((response = Response.read(in)) != null) {
+                responses.add(response);
+            }
+            return responses;
+        }
+    }
+
+    public static class Blocking extends ConnectionTest {
+        @Override
+        protected TestServer.Engine engine() {
+            return TestServer.Engine.BLOCKING;
+        }
+    }
+
+    public static class Nio extends ConnectionTest {
+        @Override
+        protected TestServer.Engine engine() {
+            return TestServer.Engine.NIO;
+        }
+    }
+
+    /**
+     * A response as received, with the chunked transfer coding already removed from the body.
+     */
+    protected static final class Response {
+        final String status;
+        final Map<String, String> headers = new HashMap<>();
+        final byte[] body;
+
+        private Response(String status, InputStream in) throws IOException {
+            this.status = status;
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                headers.put(name, line.substring(colon + 1).trim());
+            }
+            if ("chunked".equals(headers.get("transfer-encoding"))) {
+                body = ChunkedOutputStreamTest.dechunk(in);
+            } else {
+                body = in.readNBytes(Integer.parseInt(headers.get("content-length")));
+            }
+        }
+
+        /**
+         * @return the next response, or {@code null} once the connection is closed
+         */
+        static Response read(InputStream in) throws IOException {
+            String status = readLine(in);
+            return status == null ? null : new Response(status, in);
+        }
+
+        /**
+         * @return the next CRLF terminated line without its terminator, or {@code null} at the end of the stream
+         */
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b == '\n') {
+                    byte[] bytes = line.toByteArray();
+                    assertTrue("line not ended by CRLF", bytes.length > 0 && bytes[bytes.length - 1] == '\r');
+                    return new String(bytes, 0, bytes.length - 1, StandardCharsets.ISO_8859_1);
+                }
+                line.write(b);
+            }
+            assertEquals("stream ended inside a line", 0, line.size());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FileCacheTest {
+
+    private static final int PAGE_SIZE = 1000;
+
+    private Path root;
+    private FileCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("file-cache").toAbsolutePath().normalize();
+        cache = new FileCache(1024 * 1024, 64 * 1024, false, new MimeTypes(new Properties()), true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void watchedEntriesAreTrustedUntilInvalidated() throws IOException {
+        File file = write("index.html", "old");
+        FileCache.Entry entry = cache.read(file);
+
+        write("index.html", "changed");
+        assertSame(entry, cache.cached(file));
+
+        cache.invalidate(file.toPath());
+        assertNull(cache.cached(file));
+    }
+
+    @Test
+    public void invalidatesOnlyTheChangedFile() throws IOException {
+        File changed = write("a.html", "a");
+        File other = write("ab.html", "b");
+        cache.read(changed);
+        cache.read(other);
+
+        cache.invalidate(changed.toPath());
+        assertNull(cache.cached(changed));
+        assertNotNull(cache.cached(other));
+    }
+
+    @Test
+    public void invalidatesEverythingBelowADirectory() throws IOException {
+        File inside = write("css/main.css", "body {}");
+        File sibling = write("css.html", "css");
+        cache.read(inside);
+        cache.read(sibling);
+
+        cache.invalidate(root.resolve("css"));
+        assertNull(cache.cached(inside));
+        assertNotNull(cache.cached(sibling));
+    }
+
+    @Test
+    public void invalidatesEverythingBelowADeletedDirectory() throws IOException {
+        File inside = write("css/main.css", "body {}");
+        cache.read(inside);
+        Files.delete(inside.toPath());
+        Files.delete(root.resolve("css"));
+
+        cache.invalidate(root.resolve("css"));
+        assertNull(cache.cached(inside));
+    }
+
+    @Test
+    public void invalidatesTheOriginalOfAChangedGzipFile() throws IOException {
+        File original = write("index.html", "index");
+        cache.read(original);
+
+        cache.invalidate(write("index.html.gz", "compressed").toPath());
+        assertNull(cache.cached(original));
+    }
+
+    @Test
+    public void checksFilesOnceNoLongerWatched() throws IOException {
+        File file = write("index.html", "old");
+        cache.read(file);
+        cache.watched(false);
+
+        write("index.html", "changed");
+        assertNull(cache.cached(file));
+    }
+
+    @Test
+    public void evictsFilesNotUsedSinceTheHandLastPassed() throws IOException {
+        FileCache small = new FileCache(3 * PAGE_SIZE, PAGE_SIZE, false, new MimeTypes(new Properties()), true);
+        File used = page("used.html");
+        File first = page("first.html");
+        File second = page("second.html");
+        small.read(used);
+        small.read(first);
+        small.read(second);
+        assertSame(small.cached(used), small.cached(used));
+
+        File added = page("added.html");
+        small.read(added);
+        assertEquals(3 * PAGE_SIZE, small.size());
+        assertNotNull(small.cached(used));
+        assertNotNull("the entry being added is not evicted", small.cached(added));
+        assertTrue(small.cached(first) == null ^ small.cached(second) == null);
+    }
+
+    @Test(timeout = 10_000)
+    public void toleratesAnEntryThatOutgrowsTheCacheAlone() throws IOException {
+        FileCache small = new FileCache(PAGE_SIZE, PAGE_SIZE, false, new MimeTypes(new Properties()), true);
+        File file = page("index.html");
+
+        small.read(file).gzip();
+        assertNotNull(small.cached(file));
+    }
+
+    private File page(String name) throws IOException {
+        return write(name, "x".repeat(PAGE_SIZE));
+    }
+
+    private File write(String name, String content) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.US_ASCII);
+        return file.toFile();
+    }
+}
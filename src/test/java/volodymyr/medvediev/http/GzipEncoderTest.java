@@ -0,0 +1,121 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GzipEncoderTest {
+
+    /**
+     * Size of the input buffer, files of exactly this size end right at a read boundary.
+     */
+    private static final int INPUT_SIZE = 64 * 1024;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("gzip-encoder", ".html");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    public void encodesAnEmptyFile() throws IOException {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void encodesASmallFile() throws IOException {
+        assertRoundTrip(text(100));
+    }
+
+    @Test
+    public void encodesFilesAroundTheInputBufferSize() throws IOException {
+        assertRoundTrip(text(INPUT_SIZE - 1));
+        assertRoundTrip(text(INPUT_SIZE));
+        assertRoundTrip(random(INPUT_SIZE));
+        assertRoundTrip(text(INPUT_SIZE + 1));
+    }
+
+    @Test
+    public void encodesLargeFiles() throws IOException {
+        assertRoundTrip(text(5 * INPUT_SIZE + 123));
+        assertRoundTrip(random(3 * INPUT_SIZE + 7));
+    }
+
+    @Test
+    public void releasedEncoderStartsAFreshStream() throws IOException {
+        byte[] first = random(2 * INPUT_SIZE);
+        Files.write(file, first);
+        GzipEncoder abandoned = GzipEncoder.acquire();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // stops halfway, as a response dropped when its connection closes
+            abandoned.next(channel);
+        }
+        abandoned.release();
+
+        assertRoundTrip(text(INPUT_SIZE + 1));
+    }
+
+    private void assertRoundTrip(byte[] content) throws IOException {
+        Files.write(file, content);
+        byte[] chunked = encode();
+        byte[] compressed = ChunkedOutputStreamTest.dechunk(new ByteArrayInputStream(chunked));
+        assertArrayEquals(content, new GZIPInputStream(new ByteArrayInputStream(compressed)).readAllBytes());
+    }
+
+    /**
+     * @return everything the encoder produced for {@link #file}, checking that it ends exactly at the last chunk
+     */
+    private byte[] encode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GzipEncoder encoder = GzipEncoder.acquire();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (!encoder.isFinished()) {
+                ByteBuffer chunks = encoder.next(channel);
+                out.write(chunks.array(), chunks.arrayOffset() + chunks.position(), chunks.remaining());
+            }
+        } finally {
+            encoder.release();
+        }
+        byte[] encoded = out.toByteArray();
+        ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+        ChunkedOutputStreamTest.dechunk(in);
+        assertEquals("bytes after the last chunk", 0, in.available());
+        return encoded;
+    }
+
+    private static byte[] text(int length) {
+        byte[] line = "<p>The quick brown fox jumps over the lazy dog.</p>\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] text = new byte[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = line[i % line.length];
+        }
+        return text;
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,137 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayOutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Set;
+
+/**
+ * In-memory stand-in for a client connection that keeps every byte written. Like a non-blocking socket with a full
+ * send buffer, it can be made to accept only a few bytes per call.
+ */
+final class MemorySocketChannel extends SocketChannel {
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final int maxPerWrite;
+
+    MemorySocketChannel() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxPerWrite most bytes taken by one write call, gathering or not
+     */
+    MemorySocketChannel(int maxPerWrite) {
+        super(SelectorProvider.provider());
+        this.maxPerWrite = maxPerWrite;
+    }
+
+    byte[] written() {
+        return written.toByteArray();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        return (int) write(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        int total = 0;
+        for (int i = offset; i < offset + length && total < maxPerWrite; i++) {
+            int count = Math.min(srcs[i].remaining(), maxPerWrite - total);
+            byte[] bytes = new byte[count];
+            srcs[i].get(bytes);
+            written.write(bytes, 0, count);
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        return -1;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) {
+        return -1;
+    }
+
+    @Override
+    public SocketChannel bind(SocketAddress local) {
+        return this;
+    }
+
+    @Override
+    public <T> SocketChannel setOption(SocketOption<T> name, T value) {
+        return this;
+    }
+
+    @Override
+    public <T> T getOption(SocketOption<T> name) {
+        return null;
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions() {
+        return Set.of();
+    }
+
+    @Override
+    public SocketChannel shutdownInput() {
+        return this;
+    }
+
+    @Override
+    public SocketChannel shutdownOutput() {
+        return this;
+    }
+
+    @Override
+    public Socket socket() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isConnectionPending() {
+        return false;
+    }
+
+    @Override
+    public boolean connect(SocketAddress remote) {
+        return true;
+    }
+
+    @Override
+    public boolean finishConnect() {
+        return true;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() {
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) {
+    }
+}
@@ -0,0 +1,105 @@
+package volodymyr.medvediev.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RequestHeaderTest {
+
+    @Test
+    public void findsEveryHeaderIgnoringCase() {
+        for (RequestHeader header : RequestHeader.values()) {
+            String name = name(header);
+            assertSame(header, lookup(name));
+            assertSame(header, lookup(name.toUpperCase(Locale.ROOT)));
+            assertSame(header, lookup(alternateCase(name)));
+        }
+    }
+
+    @Test
+    public void findsHeadersInsideALargerArray() {
+        for (RequestHeader header : RequestHeader.values()) {
+            String name = name(header);
+            byte[] bytes = ("GET / HTTP/1.1\r\n" + name + ": value\r\n").getBytes(StandardCharsets.US_ASCII);
+            int start = 16;
+            assertSame(header, RequestHeader.lookup(bytes, start, start + name.length()));
+        }
+    }
+
+    @Test
+    public void rejectsNamesThatCollideWithKnownHeaders() {
+        // same length, first and last character: the same hash as a known header, so the same probe sequence
+        for (RequestHeader header : RequestHeader.values()) {
+            String name = name(header);
+            char[] collision = name.toCharArray();
+            for (int i = 1; i < collision.length - 1; i++) {
+                collision[i] = 'x';
+            }
+            assertNull(new String(collision), lookup(new String(collision)));
+
+            for (int i = 1; i < name.length() - 2; i++) {
+                if (name.charAt(i) == name.charAt(i + 1)) {
+                    continue;
+                }
+                char[] swapped = name.toCharArray();
+                swapped[i] = name.charAt(i + 1);
+                swapped[i + 1] = name.charAt(i);
+                assertNull(new String(swapped), lookup(new String(swapped)));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsUnknownNamesLandingOnOccupiedSlots() {
+        // every length from 1 to 40 with every pair of end characters hits each slot of the table many times over
+        for (int length = 1; length <= 40; length++) {
+            for (char first = 'a'; first <= 'z'; first++) {
+                for (char last = 'a'; last <= 'z'; last++) {
+                    char[] name = new char[length];
+                    Arrays.fill(name, 'q');
+                    name[0] = first;
+                    name[length - 1] = last;
+                    String unknown = new String(name);
+                    assertNull(unknown, lookup(unknown));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsPrefixesAndExtensionsOfKnownNames() {
+        for (RequestHeader header : RequestHeader.values()) {
+            String name = name(header);
+            assertNull(lookup(name.substring(0, name.length() - 1)));
+            assertNull(lookup(name + "s"));
+            assertNull(lookup("x-" + name));
+        }
+        assertNull(lookup(""));
+    }
+
+    private static RequestHeader lookup(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        return RequestHeader.lookup(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return the header name as sent on the wire, derived from the constant name
+     */
+    private static String name(RequestHeader header) {
+        return header.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    private static String alternateCase(String name) {
+        StringBuilder mixed = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            mixed.append(i % 2 == 0 ? Character.toUpperCase(c) : c);
+        }
+        return mixed.toString();
+    }
+}
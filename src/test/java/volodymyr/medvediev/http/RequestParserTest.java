@@ -0,0 +1,214 @@
+package volodymyr.medvediev.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestParserTest {
+
+    private static final String HEAD = "GET /Index.html HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Accept-Encoding: gzip, deflate\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n";
+
+    private final HttpRequest request = new HttpRequest();
+
+    @Test
+    public void parsesRequestLineAndKnownHeaders() throws Exception {
+        ByteBuffer buffer = buffer(HEAD);
+
+        assertTrue(RequestParser.parse(buffer, request));
+        assertSame(Http.Method.GET, request.method());
+        assertEquals("/index.html", request.resource());
+        assertSame(Http.Protocol.HTTP_1_1, request.protocol());
+        assertEquals("gzip, deflate", request.header(RequestHeader.ACCEPT_ENCODING));
+        assertEquals("keep-alive", request.header(RequestHeader.CONNECTION));
+        assertEquals("", request.header(RequestHeader.USER_AGENT));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void waitsForTheRestOfASplitHead() throws Exception {
+        byte[] head = HEAD.getBytes(StandardCharsets.US_ASCII);
+        for (int length = 0; length < head.length; length++) {
+            ByteBuffer buffer = ByteBuffer.wrap(head, 0, length);
+            assertFalse("complete after " + length + " bytes", RequestParser.parse(buffer, request));
+            assertEquals(0, buffer.position());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(head);
+        assertTrue(RequestParser.parse(buffer, request));
+        assertEquals(head.length, buffer.position());
+    }
+
+    @Test
+    public void resumesAfterMoreBytesArrive() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put("GET / HTTP/1.1\r\nConnec".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertFalse(RequestParser.parse(buffer, request));
+
+        buffer.compact().put("tion: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertTrue(RequestParser.parse(buffer, request));
+        assertEquals("close", request.header(RequestHeader.CONNECTION));
+    }
+
+    @Test
+    public void ignoresLeadingEmptyLines() throws Exception {
+        ByteBuffer buffer = buffer("\r\n\r\n\n" + HEAD);
+
+        assertTrue(RequestParser.parse(buffer, request));
+        assertSame(Http.Method.GET, request.method());
+        assertEquals("/index.html", request.resource());
+    }
+
+    @Test
+    public void leadingEmptyLinesAloneAreIncomplete() throws Exception {
+        ByteBuffer buffer = buffer("\r\n\r\n");
+
+        assertFalse(RequestParser.parse(buffer, request));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void acceptsBareLineFeeds() throws Exception {
+        ByteBuffer buffer = buffer("GET /a HTTP/1.0\nConnection: keep-alive\nUser-Agent: curl\n\n");
+
+        assertTrue(RequestParser.parse(buffer, request));
+        assertEquals("/a", request.resource());
+        assertSame(Http.Protocol.HTTP_1_0, request.protocol());
+        assertEquals("keep-alive", request.header(RequestHeader.CONNECTION));
+        assertEquals("curl", request.header(RequestHeader.USER_AGENT));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void matchesHeaderNamesIgnoringCase() throws Exception {
+        ByteBuffer buffer = buffer("GET / HTTP/1.1\r\n"
+                + "aCCEPT-eNCODING: gzip\r\n"
+                + "CONNECTION: close\r\n"
+                + "user-agent: test\r\n"
+                + "ReFeReR: http://localhost/\r\n"
+                + "\r\n");
+
+        assertTrue(RequestParser.parse(buffer, request));
+        assertEquals("gzip", request.header(RequestHeader.ACCEPT_ENCODING));
+        assertEquals("close", request.header(RequestHeader.CONNECTION));
+        assertEquals("test", request.header(RequestHeader.USER_AGENT));
+        assertEquals("http://localhost/", request.header(RequestHeader.REFERER));
+    }
+
+    @Test
+    public void skipsUnknownAndMalformedHeaders() throws Exception {
+        ByteBuffer buffer = buffer("GET / HTTP/1.1\r\n"
+                + "X-Connection: keep-alive\r\n"
+                + "no colon here\r\n"
+                + ": no name\r\n"
+                + "Connection:close  \r\n"
+                + "\r\n");
+
+        assertTrue(RequestParser.parse(buffer, request));
+        assertEquals("close", request.header(RequestHeader.CONNECTION));
+    }
+
+    @Test
+    public void leavesPipelinedHeadsInTheBuffer() throws Exception {
+        String second = "GET /second HTTP/1.1\r\nConnection: close\r\n\r\n";
+        String partialThird = "GET /third HTTP/1.1\r\n";
+        ByteBuffer buffer = buffer(HEAD + second + partialThird);
+
+        assertTrue(RequestParser.parse(buffer, request));
+        assertEquals("/index.html", request.resource());
+        assertEquals(HEAD.length(), buffer.position());
+
+        assertTrue(RequestParser.parse(buffer, request));
+        assertEquals("/second", request.resource());
+        assertEquals("close", request.header(RequestHeader.CONNECTION));
+        assertEquals("headers of the previous request are cleared", "", request.header(RequestHeader.ACCEPT_ENCODING));
+
+        assertFalse(RequestParser.parse(buffer, request));
+        assertEquals(partialThird.length(), buffer.remaining());
+    }
+
+    @Test
+    public void honoursTheBufferPositionAndArrayOffset() throws Exception {
+        byte[] bytes = ("xxxx" + HEAD + "yyyy").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, bytes.length - 4).slice();
+        buffer.position(2);
+
+        assertTrue(RequestParser.parse(buffer, request));
+        assertEquals("/index.html", request.resource());
+        assertEquals(2 + HEAD.length(), buffer.position());
+    }
+
+    @Test
+    public void keepsUnknownMethods() throws Exception {
+        assertTrue(RequestParser.parse(buffer("post /form HTTP/1.1\r\n\r\n"), request));
+        assertEquals("POST", request.method());
+    }
+
+    @Test
+    public void servesLaterHttp1MinorVersionsAsHttp11() throws Exception {
+        assertTrue(RequestParser.parse(buffer("GET / HTTP/1.9\r\n\r\n"), request));
+        assertSame(Http.Protocol.HTTP_1_1, request.protocol());
+    }
+
+    @Test
+    public void rejectsOtherProtocolVersions() {
+        assertRejected("GET / HTTP/2.0", Http.Status.HTTP_VERSION_NOT_SUPPORTED);
+        assertRejected("GET / HTTP/9.9", Http.Status.HTTP_VERSION_NOT_SUPPORTED);
+        assertRejected("GET / HTTP/1.10", Http.Status.BAD_REQUEST);
+        assertRejected("GET / HTTPS/1.1", Http.Status.BAD_REQUEST);
+        assertRejected("GET / http/1.1", Http.Status.BAD_REQUEST);
+        assertRejected("GET / HTTP/1.1 extra", Http.Status.BAD_REQUEST);
+    }
+
+    @Test
+    public void rejectsControlCharactersInTheRequestLine() {
+        assertRejected("GET /css/main.css HTTP/1.1\rSet-Cookie: a=b", Http.Status.BAD_REQUEST);
+        assertRejected("GET /a\rb HTTP/1.1", Http.Status.BAD_REQUEST);
+        assertRejected("GET /a\u0000 HTTP/1.1", Http.Status.BAD_REQUEST);
+        assertRejected("GET /a\u007f HTTP/1.1", Http.Status.BAD_REQUEST);
+    }
+
+    @Test
+    public void caseConversionDoesNotDependOnTheDefaultLocale() throws Exception {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try {
+            assertTrue(RequestParser.parse(buffer("options /INDEX.HTML HTTP/1.1\r\n\r\n"), request));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+        assertEquals("OPTIONS", request.method());
+        assertEquals("/index.html", request.resource());
+    }
+
+    @Test
+    public void rejectsMalformedRequestLines() {
+        String[] lines = {"GARBAGE", "GET", "GET /", "GET  HTTP/1.1", " / HTTP/1.1", "GET / "};
+        for (String line : lines) {
+            assertRejected(line, Http.Status.BAD_REQUEST);
+        }
+    }
+
+    private void assertRejected(String requestLine, String status) {
+        try {
+            RequestParser.parse(buffer(requestLine + "\r\n\r\n"), request);
+            fail("accepted " + requestLine);
+        } catch (BadRequestException e) {
+            assertEquals(requestLine, status, e.status());
+        }
+    }
+
+    private static ByteBuffer buffer(String head) {
+        return ByteBuffer.wrap(head.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,134 @@
+package volodymyr.medvediev.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseQueueTest {
+
+    private final ResponseQueue queue = new ResponseQueue();
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("response-queue", ".txt");
+        Files.write(file, new byte[1000]);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        queue.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void writesEveryPartInOrderToAChannelTakingAFewBytesAtATime() throws IOException {
+        byte[] content = new byte[3 * 64 * 1024 + 11];
+        new Random(1).nextBytes(content);
+        Files.write(file, content);
+        byte[] head = ascii("HTTP/1.1 200 OK\r\n\r\n");
+        byte[] large = new byte[5000];
+        new Random(2).nextBytes(large);
+
+        queue.stream().write(head);
+        queue.addBytes(large);
+        queue.addBuffer(ByteBuffer.wrap(head));
+        queue.addFile(FileChannel.open(file, StandardOpenOption.READ), content.length);
+        queue.stream().write(head);
+        queue.addGzipFile(FileChannel.open(file, StandardOpenOption.READ));
+        queue.addBytes(ascii("tail"));
+
+        MemorySocketChannel channel = new MemorySocketChannel(7);
+        long written = 0;
+        int calls = 0;
+        while (!queue.writeTo(channel)) {
+            written += queue.takeWritten();
+            calls++;
+            assertFalse(queue.isEmpty());
+        }
+        written += queue.takeWritten();
+        assertTrue(queue.isEmpty());
+        assertTrue("written in " + calls + " calls", calls > 1000);
+
+        byte[] output = channel.written();
+        assertEquals(output.length, written);
+        ByteArrayInputStream in = new ByteArrayInputStream(output);
+        assertArrayEquals(ChunkedOutputStreamTest.concat(head, large, head, content, head),
+                in.readNBytes(3 * head.length + large.length + content.length));
+        byte[] compressed = ChunkedOutputStreamTest.dechunk(in);
+        assertArrayEquals(content, new GZIPInputStream(new ByteArrayInputStream(compressed)).readAllBytes());
+        assertArrayEquals(ascii("tail"), in.readAllBytes());
+    }
+
+    @Test
+    public void closeReleasesFilesNotSent() throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        queue.addGzipFile(channel);
+        assertFalse(queue.writeTo(new MemorySocketChannel(7)));
+
+        queue.close();
+        assertFalse(channel.isOpen());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void batchIsFullOnceItHoldsAFile() throws IOException {
+        queue.stream().write(new byte[100]);
+        assertFalse(queue.isBatchFull());
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        queue.addFile(channel, channel.size());
+        assertTrue(queue.isBatchFull());
+
+        assertTrue(queue.writeTo(new MemorySocketChannel()));
+        assertFalse(queue.isBatchFull());
+        assertFalse("the file is closed once sent", channel.isOpen());
+    }
+
+    @Test
+    public void batchIsFullOnceItHoldsACompressedFile() throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        queue.addGzipFile(channel);
+        assertTrue(queue.isBatchFull());
+
+        assertTrue(queue.writeTo(new MemorySocketChannel()));
+        assertFalse(queue.isBatchFull());
+    }
+
+    @Test
+    public void batchIsFullOnceItHoldsEnoughBytes() throws IOException {
+        byte[] response = new byte[1000];
+        int responses = 0;
+        while (!queue.isBatchFull()) {
+            queue.stream().write(response);
+            queue.addBytes(new byte[4096]);
+            responses++;
+        }
+        assertTrue("full after " + responses + " responses", responses > 1 && responses <= 64);
+
+        MemorySocketChannel channel = new MemorySocketChannel();
+        assertTrue(queue.writeTo(channel));
+        assertFalse(queue.isBatchFull());
+        assertArrayEquals(new byte[responses * (1000 + 4096)], channel.written());
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,137 @@
+package volodymyr.medvediev.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+
+/**
+ * One of the engines serving a temporary copy of the pages in {@code server} on a loopback port, for tests that talk
+ * to the server over a real connection.
+ */
+final class TestServer implements AutoCloseable {
+
+    enum Engine {
+        BLOCKING, NIO
+    }
+
+    /**
+     * Largest file kept in the cache, larger ones are streamed from disk.
+     */
+    static final int CACHE_FILE_MAX = 16 * 1024;
+
+    private static final String TEXT = "<p>The quick brown fox jumps over the lazy dog, again and again.</p>\n";
+
+    private final Path root;
+    private final ServerSocketChannel serverChannel;
+    private final AccessLog accessLog;
+    private ExecutorService executor;
+
+    TestServer(Engine engine) throws IOException {
+        root = Files.createTempDirectory("http-test");
+        copyPages(Path.of("server"), root);
+
+        Properties config = new Properties();
+        config.setProperty(Config.ROOT_PARAM, root.toString());
+        config.setProperty(Config.WEB_ROOT_PARAM, root.toString());
+        config.setProperty(Config.SERVER_VERSION_PARAM, "Http Server v1.0");
+        config.setProperty(AccessLog.FILE_PARAM, root.resolve("logs/access.log").toString());
+        config.setProperty(NioHttpServer.THREADS_PARAM, "1");
+        config.setProperty(FileCache.MAX_FILE_SIZE_PARAM, String.valueOf(CACHE_FILE_MAX));
+
+        MimeTypes mimeTypes = new MimeTypes(config);
+        accessLog = AccessLog.fromConfig(config);
+        Metrics metrics = Metrics.fromConfig(config);
+        RequestProcessor processor = new RequestProcessor(config, FileCache.fromConfig(config, mimeTypes, false),
+                MappedFiles.fromConfig(config), mimeTypes, ResolvedPaths.fromConfig(config),
+                ErrorPages.fromConfig(config, mimeTypes), accessLog, metrics);
+        KeepAlive keepAlive = KeepAlive.fromConfig(config);
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread acceptor;
+        if (engine == Engine.BLOCKING) {
+            executor = RequestExecutors.create(config);
+            acceptor = new Thread(() -> acceptBlocking(processor, keepAlive, metrics), "test-acceptor");
+        } else {
+            NioHttpServer server = new NioHttpServer(config, processor, keepAlive, metrics);
+            acceptor = new Thread(() -> {
+                try {
+                    server.serve(serverChannel);
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            }, "test-acceptor");
+        }
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return ((InetSocketAddress) serverChannel.socket().getLocalSocketAddress()).getPort();
+    }
+
+    /**
+     * Creates {@code name} in the web root with {@code size} bytes of repetitive HTML.
+     */
+    File text(String name, int size) throws IOException {
+        StringBuilder text = new StringBuilder(size + TEXT.length());
+        while (text.length() < size) {
+            text.append(TEXT);
+        }
+        text.setLength(size);
+        Path file = root.resolve(name);
+        Files.writeString(file, text, StandardCharsets.ISO_8859_1);
+        return file.toFile();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        accessLog.close();
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private void acceptBlocking(RequestProcessor processor, KeepAlive keepAlive, Metrics metrics) {
+        try {
+            while (true) {
+                SocketChannel client = HttpServer.accept(serverChannel);
+                if (client != null) {
+                    executor.execute(new HttpRequestHandler(client, processor, keepAlive, metrics,
+                            () -> RequestExecutors.hasBacklog(executor)));
+                }
+            }
+        } catch (IOException e) {
+            // closed by the test
+        }
+    }
+
+    private static void copyPages(Path from, Path to) throws IOException {
+        try (Stream<Path> pages = Files.walk(from)) {
+            for (Path page : (Iterable<Path>) pages::iterator) {
+                Path target = to.resolve(from.relativize(page).toString());
+                if (Files.isDirectory(page)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(page, target);
+                }
+            }
+        }
+    }
+}